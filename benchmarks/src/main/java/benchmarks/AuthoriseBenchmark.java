@@ -0,0 +1,76 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import server.RemoteWhiteboard;
+import util.UserIdentity;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of authorising a call with this many users on the server, for the last user to join (the worst case
+ * for a scan). token() is a server call that does nothing but look up the caller's session by token; scan() is
+ * the check every call made before tokens, comparing the caller's credentials with each user's in turn.
+ * @author Alex Epstein
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class AuthoriseBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int users;
+
+    private RemoteWhiteboard whiteboard;
+    // The last user to join, as their calls arrive: equal credentials, but not the same strings the server holds
+    private UserIdentity caller;
+    // The users as the server kept them before tokens: a list, in the order they joined
+    private final ArrayList<UserIdentity> list = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        whiteboard = new RemoteWhiteboard("localhost");
+        ConcurrentHashMap<String, FakeClient> fakes = new ConcurrentHashMap<>();
+        whiteboard.setClientResolver(uid -> fakes.get(uid.username));
+
+        UserIdentity admin = new UserIdentity("admin", "secret");
+        fakes.put(admin.username, new FakeClient(0, null, usernames -> {
+            try {
+                if (!usernames.isEmpty()) whiteboard.decideJoins(admin, usernames, true);
+            } catch (RemoteException ignored) {}
+        }));
+        admin.token = whiteboard.startWhiteboard(admin);
+        list.add(new UserIdentity(admin.username, admin.secret));
+        UserIdentity last = admin;
+        for (int i = 1; i < users; i++) {
+            UserIdentity uid = new UserIdentity("user" + i, "secret" + i);
+            fakes.put(uid.username, new FakeClient(0, null, null));
+            uid.token = whiteboard.joinWhiteboard(uid);
+            if (uid.token == null) throw new IllegalStateException(uid.username + " wasn't let in");
+            list.add(new UserIdentity(uid.username, uid.secret));
+            last = uid;
+        }
+        caller = new UserIdentity(new String(last.username), new String(last.secret));
+        caller.token = new String(last.token);
+    }
+
+    @Benchmark
+    public void token() throws RemoteException {
+        whiteboard.acknowledge(caller, 0);
+    }
+
+    @Benchmark
+    public boolean scan() {
+        for (UserIdentity user : list) {
+            if (user.is(caller)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import drawing.*;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic drawings for the benchmarks (public, for those in the client package)
+ * @author Alex Epstein
+ */
+public final class Drawings {
+
+    private Drawings() {}
+
+    /**
+     * A hand-drawn-like stroke: a smooth random walk sampled a pixel or two apart, as a mouse reports it
+     * @param points
+     * @param seed
+     * @return
+     */
+    public static FreeLine stroke(int points, long seed) {
+        return stroke(points, seed, 500, 500);
+    }
+
+    public static FreeLine stroke(int points, long seed, int startx, int starty) {
+        Random random = new Random(seed);
+        FreeLine line = new FreeLine("bench", 0, Color.BLACK);
+        double x = startx, y = starty, heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < points; i++) {
+            heading += random.nextGaussian() * 0.15;
+            double step = 1 + random.nextDouble();
+            x = Math.max(0, Math.min(4000, x + Math.cos(heading) * step));
+            y = Math.max(0, Math.min(4000, y + Math.sin(heading) * step));
+            line.addPoint((short) x, (short) y);
+        }
+        return line;
+    }
+
+    /**
+     * A mix of every kind of drawing, scattered over a width x height area
+     * @param count
+     * @param width
+     * @param height
+     * @param seed
+     * @return
+     */
+    public static ArrayList<Drawing> mixed(int count, int width, int height, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Drawing> drawings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Color colour = new Color(random.nextInt(0xFFFFFF));
+            Drawing d;
+            switch (i % 6) {
+                case 0: d = new Line("bench", i, colour); break;
+                case 1: d = new drawing.Rectangle("bench", i, colour); break;
+                case 2: d = new Circle("bench", i, colour); break;
+                case 3: d = new Triangle("bench", i, colour); break;
+                case 4: {
+                    Text text = new Text("bench", i, colour);
+                    text.setCharArray("label " + i);
+                    d = text;
+                    break;
+                }
+                default: {
+                    FreeLine line = stroke(100, random.nextLong(), random.nextInt(width), random.nextInt(height));
+                    line.colour = colour;
+                    line.optimise(1.0);
+                    d = line;
+                }
+            }
+            if (!(d instanceof FreeLine)) {
+                d.startx = random.nextInt(width);
+                d.starty = random.nextInt(height);
+                d.endx = d.startx + random.nextInt(200);
+                d.endy = d.starty + random.nextInt(200);
+            }
+            d.localId = i;
+            d.seq = i + 1;
+            drawings.add(d);
+        }
+        return drawings;
+    }
+}
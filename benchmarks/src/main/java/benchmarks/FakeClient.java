@@ -0,0 +1,58 @@
+package benchmarks;
+
+import client.IInteractiveCanvasManager;
+import drawing.Drawing;
+import drawing.FreeLine;
+import util.UserIdentity;
+
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * An in-process stand-in for a client: accepts every callback, optionally taking a fixed time over each (a
+ * simulated round trip), and reports delivered drawings and join requests to the benchmark
+ * @author Alex Epstein
+ */
+class FakeClient implements IInteractiveCanvasManager {
+
+    private final long latencyNanos;
+    private final Runnable onDrawing;
+    private final Consumer<List<String>> onJoinRequests;
+
+    FakeClient(long latencyNanos, Runnable onDrawing, Consumer<List<String>> onJoinRequests) {
+        this.latencyNanos = latencyNanos;
+        this.onDrawing = onDrawing;
+        this.onJoinRequests = onJoinRequests;
+    }
+
+    private void delay() {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    @Override
+    public void addDrawing(UserIdentity uid, Drawing drawing) {
+        delay();
+        if (onDrawing != null) onDrawing.run();
+    }
+
+    @Override
+    public void addDrawings(UserIdentity uid, List<Drawing> drawings) {
+        delay();
+        if (onDrawing != null) onDrawing.run();
+    }
+
+    @Override
+    public void notifyJoinRequests(UserIdentity uid, List<String> usernames) {
+        if (onJoinRequests != null) onJoinRequests.accept(usernames);
+    }
+
+    @Override public void appendToStroke(UserIdentity uid, FreeLine segment) {}
+    @Override public void clearCanvas(UserIdentity uid, long seq) {}
+    @Override public void notifyUserJoin(UserIdentity uid, String username) {}
+    @Override public void notifyUserLeft(UserIdentity uid, String username) {}
+    @Override public void newChatMessage(UserIdentity uid, String username, String message) {}
+    @Override public void reset(UserIdentity uid) {}
+}
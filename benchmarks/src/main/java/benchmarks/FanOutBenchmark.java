@@ -0,0 +1,83 @@
+package benchmarks;
+
+import drawing.Line;
+import org.openjdk.jmh.annotations.*;
+import server.RemoteWhiteboard;
+import util.UserIdentity;
+
+import java.awt.Color;
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RemoteWhiteboard.drawToCanvas fanned out to in-process fake clients: the time from submitting a drawing to
+ * every client having received it, with and without a simulated round trip per client (a broadcast should take
+ * about the slowest client's time, not the sum of them all).
+ * The canvas is cleared before each iteration, so it doesn't grow without bound.
+ * @author Alex Epstein
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FanOutBenchmark {
+
+    @Param({"1", "10", "100"})
+    int clients;
+
+    @Param({"0", "1000"})
+    long latencyMicros;
+
+    private RemoteWhiteboard whiteboard;
+    private UserIdentity admin;
+    private volatile CountDownLatch delivered;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        whiteboard = new RemoteWhiteboard("localhost");
+        ConcurrentHashMap<String, FakeClient> fakes = new ConcurrentHashMap<>();
+        whiteboard.setClientResolver(uid -> fakes.get(uid.username));
+
+        long latency = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        Runnable onDrawing = () -> delivered.countDown();
+        admin = new UserIdentity("admin", "secret");
+        fakes.put(admin.username, new FakeClient(latency, onDrawing, usernames -> {
+            // Let everyone in
+            try {
+                if (!usernames.isEmpty()) whiteboard.decideJoins(admin, usernames, true);
+            } catch (RemoteException ignored) {}
+        }));
+        admin.token = whiteboard.startWhiteboard(admin);
+        for (int i = 1; i < clients; i++) {
+            UserIdentity uid = new UserIdentity("user" + i, "secret");
+            fakes.put(uid.username, new FakeClient(latency, onDrawing, null));
+            uid.token = whiteboard.joinWhiteboard(uid);
+            if (uid.token == null) throw new IllegalStateException(uid.username + " wasn't let in");
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() throws RemoteException {
+        whiteboard.clearCanvas(admin);
+    }
+
+    @Benchmark
+    public void drawToCanvas() throws Exception {
+        CountDownLatch latch = new CountDownLatch(clients);
+        delivered = latch;
+        Line line = new Line(admin.username, System.currentTimeMillis(), Color.BLACK);
+        line.localId = ++nextId;
+        line.endx = 100;
+        line.endy = 100;
+        // The admin isn't rate limited
+        whiteboard.drawToCanvas(admin, line);
+        if (!latch.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Drawing not delivered to every client");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import drawing.FreeLine;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FreeLine.drawToGraphics into an image, at full size and zoomed out (where the level-of-detail copy is drawn)
+ * @author Alex Epstein
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FreeLineDrawBenchmark {
+
+    @Param({"200", "2000", "20000"})
+    int points;
+
+    @Param({"1.0", "0.25", "0.0625"})
+    double scale;
+
+    private FreeLine stroke;
+    private BufferedImage image;
+    private Graphics2D g;
+
+    @Setup
+    public void setUp() {
+        stroke = Drawings.stroke(points, 42);
+        image = new BufferedImage(1024, 1024, BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+        g.scale(scale, scale);
+        g.setColor(Color.BLACK);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage drawToGraphics() {
+        stroke.drawToGraphics(g, scale);
+        return image;
+    }
+}
@@ -0,0 +1,99 @@
+package benchmarks;
+
+import drawing.DrawingCodec;
+import drawing.FreeLine;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Color;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FreeLine.optimise, at the client's default tolerance of 1px, on the strokes in strokes.txt (pen strokes as the
+ * canvas captures them from the mouse): Douglas-Peucker alone, and followed by Visvalingam-Whyatt.
+ * Each call simplifies fresh copies of every stroke; copy() alone is the baseline to subtract.
+ * The points and encoded bytes of the strokes before and after are printed at the start of each run.
+ * @author Alex Epstein
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FreeLineOptimiseBenchmark {
+
+    private static final double _TOLERANCE = 1.0;
+
+    @Param({"false", "true"})
+    boolean visvalingam;
+
+    private ArrayList<FreeLine> strokes;
+
+    @Setup
+    public void setUp() throws IOException {
+        strokes = load();
+        ArrayList<FreeLine> optimised = optimise();
+        System.out.printf("%n%d strokes: %d points, %d bytes before; %d points, %d bytes after%n", strokes.size(),
+                points(strokes), bytes(strokes), points(optimised), bytes(optimised));
+    }
+
+    @Benchmark
+    public ArrayList<FreeLine> copy() {
+        ArrayList<FreeLine> copies = new ArrayList<>(strokes.size());
+        for (FreeLine stroke : strokes) {
+            copies.add(stroke.tail(0));
+        }
+        return copies;
+    }
+
+    @Benchmark
+    public ArrayList<FreeLine> optimise() {
+        ArrayList<FreeLine> lines = copy();
+        for (FreeLine line : lines) {
+            line.optimise(_TOLERANCE, visvalingam);
+        }
+        return lines;
+    }
+
+    private static ArrayList<FreeLine> load() throws IOException {
+        ArrayList<FreeLine> strokes = new ArrayList<>();
+        InputStream in = FreeLineOptimiseBenchmark.class.getResourceAsStream("strokes.txt");
+        if (in == null) throw new FileNotFoundException("strokes.txt");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String row;
+            while ((row = reader.readLine()) != null) {
+                if (row.isEmpty() || row.startsWith("#")) continue;
+                FreeLine line = new FreeLine("bench", 0, Color.BLACK);
+                for (String point : row.split(" ")) {
+                    int comma = point.indexOf(',');
+                    line.addPoint(Short.parseShort(point.substring(0, comma)), Short.parseShort(point.substring(comma + 1)));
+                }
+                strokes.add(line);
+            }
+        }
+        return strokes;
+    }
+
+    private static int points(ArrayList<FreeLine> lines) {
+        int points = 0;
+        for (FreeLine line : lines) {
+            points += line.size();
+        }
+        return points;
+    }
+
+    /**
+     * The size of the lines as DrawingCodec records, as they are logged and saved (and near enough as they are sent)
+     */
+    private static int bytes(ArrayList<FreeLine> lines) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (FreeLine line : lines) {
+            DrawingCodec.write(line, out);
+        }
+        return bytes.size();
+    }
+}
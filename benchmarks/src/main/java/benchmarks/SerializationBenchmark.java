@@ -0,0 +1,104 @@
+package benchmarks;
+
+import client.LegacyDrawings;
+import drawing.Drawing;
+import drawing.DrawingCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a batch of mixed drawings three ways:
+ * - baseline: the same drawings as the old classes, default-serialized in an ObjectOutputStream, as RMI used to
+ *   send them (the frozen copies client.LegacyCanvasFile reads old saved canvases with)
+ * - serialize/deserialize: as RMI sends them now, an ObjectOutputStream using each drawing's Externalizable encoding
+ * - encode/decode: as bare DrawingCodec records, the form each write-ahead log record and .canvas file entry wraps
+ *   in its own framing
+ * The encoded sizes are printed at the start of each run.
+ * @author Alex Epstein
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SerializationBenchmark {
+
+    @Param({"1", "1000"})
+    int drawings;
+
+    private ArrayList<Drawing> batch;
+    private ArrayList<Serializable> legacyBatch;
+    private byte[] legacySerialized;
+    private byte[] serialized;
+    private byte[] records;
+
+    @Setup
+    public void setUp() throws IOException {
+        batch = Drawings.mixed(drawings, 4000, 4000, 42);
+        legacyBatch = LegacyDrawings.of(batch);
+        legacySerialized = serializeBaseline();
+        serialized = serialize();
+        records = encode();
+        System.out.printf("%n%d drawings: %d bytes default-serialized (old classes), %d bytes serialized, "
+                        + "%d bytes as codec records%n",
+                drawings, legacySerialized.length, serialized.length, records.length);
+    }
+
+    @Benchmark
+    public byte[] serializeBaseline() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(legacyBatch);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserializeBaseline() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(legacySerialized))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(batch);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public ArrayList<Drawing> deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return (ArrayList<Drawing>) in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Drawing d : batch) {
+            DrawingCodec.write(d, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public ArrayList<Drawing> decode() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        ArrayList<Drawing> decoded = new ArrayList<>(drawings);
+        while (buffer.hasRemaining()) {
+            decoded.add(DrawingCodec.read(buffer));
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,87 @@
+package benchmarks;
+
+import client.IInteractiveCanvasManager;
+import drawing.Line;
+import org.openjdk.jmh.annotations.*;
+import server.IRemoteWhiteboard;
+import server.RemoteWhiteboard;
+import transport.Connection;
+import transport.NioEndpoint;
+import util.UserIdentity;
+
+import java.awt.Color;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A client calling the server over loopback, through RMI and through the NIO transport: a call that returns a
+ * value, and submitting a drawing (which is also sent back to the client). Run with more threads to load a single
+ * client's connection, e.g. -Pjmh.args="-t 8".
+ * The canvas is cleared before each iteration, so it doesn't grow without bound.
+ * @author Alex Epstein
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TransportBenchmark {
+
+    private static final int _NIO_PORT = 11199;
+    private static final int _MAX_FRAME = 64 << 20;
+
+    @Param({"rmi", "nio"})
+    String transport;
+
+    private RemoteWhiteboard whiteboard;
+    private Connection connection;
+    private IRemoteWhiteboard remote;
+    private UserIdentity uid;
+    private final AtomicLong nextId = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        whiteboard = new RemoteWhiteboard("localhost");
+        FakeClient client = new FakeClient(0, null, null);
+        if (transport.equals("rmi")) {
+            if (!whiteboard.bindRmi()) throw new IllegalStateException("Couldn't bind the RMI registry");
+            // Callbacks go straight to the fake, in-process: only calls to the server cross RMI
+            whiteboard.setClientResolver(u -> client);
+            remote = (IRemoteWhiteboard) Naming.lookup("//localhost/Whiteboard");
+        } else {
+            whiteboard.listenNio(_NIO_PORT);
+            connection = NioEndpoint.connect("localhost", _NIO_PORT, _MAX_FRAME, IRemoteWhiteboard._NIO_CLASSES,
+                    IInteractiveCanvasManager.class, client, IRemoteWhiteboard.class);
+            remote = connection.getProxy();
+        }
+        uid = new UserIdentity("admin", "secret");
+        uid.token = remote.startWhiteboard(uid);
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() throws RemoteException {
+        remote.clearCanvas(uid);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (connection != null) connection.close();
+    }
+
+    @Benchmark
+    public Object call() throws RemoteException {
+        return remote.getUsers(uid);
+    }
+
+    @Benchmark
+    public void drawToCanvas() throws RemoteException {
+        Line line = new Line(uid.username, System.currentTimeMillis(), Color.BLACK);
+        line.localId = nextId.incrementAndGet();
+        line.endx = 100;
+        line.endy = 100;
+        remote.drawToCanvas(uid, line);
+    }
+}
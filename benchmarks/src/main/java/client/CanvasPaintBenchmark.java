@@ -0,0 +1,94 @@
+package client;
+
+import drawing.Drawing;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InteractiveCanvas.paint at 4K: the whole screen, and a small area (as repainted while drawing a shape), painted
+ * into a BufferedImage standing in for the screen. With "backbuffer", the canvas has a peer (its frame is made
+ * displayable but never shown), so paint composes each frame in its VolatileImage back buffer and blits it; this
+ * needs a display, and without one those runs fail and the rest carry on. With "direct", the canvas has none, so
+ * paint takes its fallback and draws straight into the target. In the client package to reach the canvas's
+ * internals.
+ * @author Alex Epstein
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CanvasPaintBenchmark {
+
+    private static final int _WIDTH = 3840;
+    private static final int _HEIGHT = 2160;
+
+    @Param({"backbuffer", "direct"})
+    String path;
+
+    @Param({"0", "-2"})
+    int zoom;
+
+    @Param({"20000"})
+    int drawings;
+
+    private InteractiveCanvas canvas;
+    private Frame frame;
+    private BufferedImage screen;
+    private Graphics2D g;
+    private Rectangle overlay;
+    private final Random random = new Random(42);
+
+    @Setup
+    public void setUp() {
+        canvas = new InteractiveCanvas(_WIDTH, _HEIGHT, "bench", null);
+        for (Drawing d : benchmarks.Drawings.mixed(drawings, _WIDTH, _HEIGHT, 42)) {
+            canvas.canvasFlat.draw(d);
+        }
+        canvas.zoom = zoom;
+        if (path.equals("backbuffer")) {
+            if (GraphicsEnvironment.isHeadless()) {
+                throw new IllegalStateException("A back buffer needs a display");
+            }
+            frame = new Frame();
+            frame.setLayout(null);
+            frame.add(canvas);
+            frame.addNotify();
+            canvas.setBounds(0, 0, _WIDTH, _HEIGHT);
+        }
+        screen = new BufferedImage(_WIDTH, _HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g = screen.createGraphics();
+        overlay = new Rectangle(0, 0, 256, 256);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+        if (frame != null) {
+            frame.dispose();
+        }
+    }
+
+    @Benchmark
+    public Image fullFrame() {
+        Graphics2D clipped = (Graphics2D) g.create(0, 0, _WIDTH, _HEIGHT);
+        canvas.paint(clipped);
+        clipped.dispose();
+        return screen;
+    }
+
+    @Benchmark
+    public Image overlayRepaint() {
+        overlay.setLocation(random.nextInt(_WIDTH - overlay.width), random.nextInt(_HEIGHT - overlay.height));
+        Graphics2D clipped = (Graphics2D) g.create();
+        clipped.clip(overlay);
+        canvas.paint(clipped);
+        clipped.dispose();
+        return screen;
+    }
+}
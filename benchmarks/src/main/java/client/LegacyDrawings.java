@@ -0,0 +1,68 @@
+package client;
+
+import drawing.*;
+
+import java.awt.Font;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Turns drawings into the frozen copies of the old drawing classes that LegacyCanvasFile reads saved canvases
+ * with, so that a benchmark can default-serialize them as RMI used to send drawings
+ * @author Alex Epstein
+ */
+public final class LegacyDrawings {
+
+    private LegacyDrawings() {}
+
+    /**
+     * @param drawings
+     * @return old-style copies of the drawings, in order
+     */
+    public static ArrayList<Serializable> of(ArrayList<Drawing> drawings) {
+        ArrayList<Serializable> copies = new ArrayList<>(drawings.size());
+        for (Drawing d : drawings) {
+            copies.add(of(d));
+        }
+        return copies;
+    }
+
+    private static LegacyCanvasFile.OldDrawing of(Drawing d) {
+        LegacyCanvasFile.OldDrawing copy;
+        if (d instanceof FreeLine) {
+            FreeLine line = (FreeLine) d;
+            LegacyCanvasFile.OldFreeLine old = new LegacyCanvasFile.OldFreeLine();
+            old.points = new LinkedList<>();
+            old._POINT_SKIP_FACTOR = 1;
+            for (int i = 0; i < line.size(); i++) {
+                LegacyCanvasFile.OldFreeLine.FreeLinePoint p = old.new FreeLinePoint();
+                p.x = line.getX(i);
+                p.y = line.getY(i);
+                old.points.add(p);
+            }
+            copy = old;
+        } else if (d instanceof Text) {
+            LegacyCanvasFile.OldText old = new LegacyCanvasFile.OldText();
+            old.chars = ((Text) d).getText().toCharArray();
+            old.font = new Font("Helvetica", Font.PLAIN, 18);
+            copy = old;
+        } else if (d instanceof drawing.Rectangle) {
+            copy = new LegacyCanvasFile.OldRectangle();
+        } else if (d instanceof Circle) {
+            copy = new LegacyCanvasFile.OldCircle();
+        } else if (d instanceof Triangle) {
+            copy = new LegacyCanvasFile.OldTriangle();
+        } else {
+            copy = new LegacyCanvasFile.OldLine();
+        }
+        copy.startx = d.startx;
+        copy.starty = d.starty;
+        copy.endx = d.endx;
+        copy.endy = d.endy;
+        copy.colour = d.colour;
+        copy.artist = d.getArtist();
+        copy.timestamp = d.timestamp;
+        return copy;
+    }
+}
@@ -2,10 +2,15 @@ import client.ClientGUI;
 import server.*;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.rmi.RemoteException;
 
 /**
  * Executable class that creates a new whiteboard server and a client (admin) GUI to join it.
+ * Usage: CreateWhiteBoard hostname [data directory]. Given a data directory, the canvas is persisted there
+ * and recovered from it on restart.
+ * The whiteboard is reachable over RMI (//hostname/Whiteboard), and also over a direct connection
+ * (nio://hostname:port) if the whiteboard.nio.port property gives a port to listen on.
  * @author Alex Epstein
  */
 
@@ -14,7 +19,12 @@ public class CreateWhiteBoard {
     public static void main(String args[]) throws RemoteException {
 
         try {
-            RemoteWhiteboard managerServer = new RemoteWhiteboard(args[0]);
+            RemoteWhiteboard managerServer = new RemoteWhiteboard(args[0], args.length > 1 ? Paths.get(args[1]) : null);
+            managerServer.bindRmi();
+            Integer nioPort = Integer.getInteger("whiteboard.nio.port");
+            if (nioPort != null) {
+                managerServer.listenNio(nioPort);
+            }
 
         } catch (IOException e) {
             System.out.println("Error: starting whiteboard manager failed");
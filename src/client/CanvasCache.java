@@ -0,0 +1,166 @@
+package client;
+
+import drawing.Drawing;
+import server.CanvasDelta;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * The client's own copy of a whiteboard's drawings, in the server's sequence order. The GUI keeps one per
+ * server across reconnects, so rejoining only has to fetch what was missed rather than the whole canvas.
+ *
+ * Drawings are applied strictly in sequence: one that arrives ahead of its predecessors waits in a reorder buffer
+ * until the gap is filled, and one that has already been applied is ignored. So every client layers drawings
+ * exactly as the server's log does, whatever order the callbacks arrive in.
+ *
+ * A cache may also be partial: started part way through the sequence, holding only the drawings after that point.
+ * The client then fetches older drawings region by region as they come into view, and keeps those on the canvas
+ * alone. A partial cache becomes whole once the server sends the whole canvas, or clears everything before its start.
+ * @author Alex Epstein
+ */
+public class CanvasCache {
+
+    private final ArrayList<Drawing> drawings = new ArrayList<>();
+    // Drawings that arrived before one of their predecessors
+    private final TreeMap<Long, Drawing> early = new TreeMap<>();
+    // Every drawing up to this sequence number has been applied
+    private long seq = 0;
+    // While partial, the cache has none of the drawings up to startSeq
+    private boolean partial = false;
+    private long startSeq = 0;
+
+    /**
+     * Brings the cache up to date with a delta from the server
+     * @param delta
+     * @return the drawings newly applied, in order (after a reset: everything in the cache)
+     * @throws IOException
+     */
+    public synchronized List<Drawing> apply(CanvasDelta delta) throws IOException {
+        List<Drawing> applied = new ArrayList<>();
+        if (delta.reset) {
+            drawings.clear();
+            partial = false;
+        }
+        for (Drawing d : delta.getDrawings()) {
+            if (delta.reset || d.seq > seq) {
+                drawings.add(d);
+                applied.add(d);
+            }
+        }
+        if (delta.reset || delta.seq > seq) {
+            seq = delta.seq;
+        }
+        drainEarly(applied);
+        return delta.reset ? new ArrayList<>(drawings) : applied;
+    }
+
+    /**
+     * Offers a drawing sent by the server
+     * @param drawing
+     * @return the drawings that can now be applied, in order (none if this one is early or a duplicate)
+     */
+    public synchronized List<Drawing> offer(Drawing drawing) {
+        List<Drawing> applied = new ArrayList<>();
+        if (drawing.seq <= seq) {
+            return applied;
+        }
+        early.put(drawing.seq, drawing);
+        drainEarly(applied);
+        return applied;
+    }
+
+    /**
+     * The canvas was cleared on the server after the given sequence number: drops every drawing up to it
+     * @param clearedSeq
+     * @return the drawings that survive the clear (ones drawn after it), in order
+     */
+    public synchronized List<Drawing> clear(long clearedSeq) {
+        if (clearedSeq >= startSeq) {
+            partial = false;
+        }
+        drawings.removeIf(d -> d.seq <= clearedSeq);
+        early.headMap(clearedSeq, true).clear();
+        List<Drawing> kept = new ArrayList<>(drawings);
+        if (clearedSeq > seq) {
+            seq = clearedSeq;
+            drainEarly(kept);
+        }
+        return kept;
+    }
+
+    /**
+     * Empties the cache and makes it partial, to be started once the client knows where
+     */
+    public synchronized void restart() {
+        drawings.clear();
+        early.clear();
+        seq = 0;
+        startSeq = 0;
+        partial = true;
+    }
+
+    /**
+     * Starts a partial cache at the given sequence number: the client has fetched the drawings up to it that it
+     * needs by region, and takes every drawing after it from the server in sequence
+     * @param start
+     * @return the drawings that were waiting and can now be applied, in order
+     */
+    public synchronized List<Drawing> startAt(long start) {
+        List<Drawing> applied = new ArrayList<>();
+        if (start <= seq) {
+            // Everything up to the start has already arrived in sequence, so nothing is missing
+            partial = false;
+            return applied;
+        }
+        startSeq = start;
+        seq = start;
+        early.headMap(start, true).clear();
+        drainEarly(applied);
+        return applied;
+    }
+
+    /**
+     * @return true if the cache doesn't hold the drawings before its start (see startAt)
+     */
+    public synchronized boolean isPartial() {
+        return partial;
+    }
+
+    private void drainEarly(List<Drawing> applied) {
+        for (Iterator<Drawing> it = early.values().iterator(); it.hasNext(); ) {
+            Drawing d = it.next();
+            if (d.seq <= seq) {
+                it.remove();
+            } else if (d.seq == seq + 1) {
+                drawings.add(d);
+                applied.add(d);
+                seq = d.seq;
+                it.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return true if some drawings are waiting on a predecessor that hasn't arrived
+     */
+    public synchronized boolean hasGap() {
+        return !early.isEmpty();
+    }
+
+    public synchronized long getSeq() {
+        return seq;
+    }
+
+    /**
+     * @return a copy of the applied drawings, in order
+     */
+    public synchronized ArrayList<Drawing> getDrawings() {
+        return new ArrayList<>(drawings);
+    }
+}
@@ -0,0 +1,191 @@
+package client;
+
+import drawing.Drawing;
+import drawing.DrawingCodec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The .canvas file format (version 2), designed to be read in place through a memory-mapped buffer, so that opening
+ * a very large board doesn't need the whole of it on the heap, and records can be handed on as they are read.
+ *
+ * Layout: a fixed header; the drawings, each as [int length][record] (see DrawingCodec), in canvas order;
+ * then an index with one fixed-size entry per drawing: [long offset][long seq][int x, y, width, height],
+ * i.e. where its record starts, its sequence number and its bounding box.
+ *
+ * Files saved before this format are a single serialized ArrayList of drawings; readLegacy still opens them.
+ * @author Alex Epstein
+ */
+public class CanvasFile {
+
+    private static final int _MAGIC = 0x57424356; // "WBCV"
+    private static final short _VERSION = 2;
+    // magic, version, flags, count, index offset, padded for future fields
+    private static final int _HEADER_SIZE = 32;
+    private static final int _INDEX_ENTRY_SIZE = 8 + 8 + 4 * 4;
+
+    /**
+     * Writes the drawings to the file in the indexed format, replacing whatever was there
+     * @param file
+     * @param drawings
+     * @throws IOException
+     */
+    public static void write(File file, List<Drawing> drawings) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(_HEADER_SIZE);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+            DataOutputStream recordOut = new DataOutputStream(record);
+
+            ByteBuffer index = ByteBuffer.allocate(drawings.size() * _INDEX_ENTRY_SIZE);
+            long offset = _HEADER_SIZE;
+            for (Drawing d : drawings) {
+                record.reset();
+                DrawingCodec.write(d, recordOut);
+                out.writeInt(record.size());
+                record.writeTo(out);
+
+                java.awt.Rectangle b = d.getBounds();
+                index.putLong(offset).putLong(d.seq).putInt(b.x).putInt(b.y).putInt(b.width).putInt(b.height);
+                offset += 4 + record.size();
+            }
+            out.write(index.array());
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(_HEADER_SIZE);
+            header.putInt(_MAGIC).putShort(_VERSION).putShort((short) 0).putInt(drawings.size()).putLong(offset);
+            header.clear();
+            channel.write(header, 0);
+        }
+    }
+
+    /**
+     * Tells if the file is in the current indexed format (rather than the legacy one)
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static boolean isIndexed(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == _MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a file in the indexed format for reading
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static Reader open(File file) throws IOException {
+        return new Reader(file);
+    }
+
+    /**
+     * Reads a file in the legacy format: one serialized ArrayList of drawings, as the drawing classes were then
+     * (see LegacyCanvasFile)
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ArrayList<Drawing> readLegacy(File file) throws IOException {
+        return LegacyCanvasFile.read(file);
+    }
+
+    /**
+     * Random access to the drawings of an indexed file, decoded one at a time straight from the mapped file
+     */
+    public static class Reader implements Closeable {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer map;
+        private final int count;
+        private final int indexOffset;
+
+        Reader(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Canvas file too large to map");
+                }
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (map.limit() < _HEADER_SIZE || map.getInt(0) != _MAGIC) {
+                    throw new IOException("Not an indexed canvas file");
+                }
+                if (map.getShort(4) > _VERSION) {
+                    throw new IOException("Canvas file version " + map.getShort(4) + " is newer than this program");
+                }
+                count = map.getInt(8);
+                long index = map.getLong(12);
+                if (count < 0 || index < _HEADER_SIZE || index + (long) count * _INDEX_ENTRY_SIZE > map.limit()) {
+                    throw new IOException("Corrupt canvas file index");
+                }
+                indexOffset = (int) index;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the number of drawings in the file
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Decodes the i'th drawing
+         * @param i
+         * @return
+         * @throws IOException
+         */
+        public Drawing get(int i) throws IOException {
+            int offset = (int) map.getLong(entry(i));
+            int length = map.getInt(offset);
+            if (length < 0 || offset + 4L + length > indexOffset) {
+                throw new IOException("Corrupt drawing record " + i);
+            }
+            ByteBuffer record = map.duplicate();
+            record.position(offset + 4).limit(offset + 4 + length);
+            Drawing d = DrawingCodec.read(record.slice());
+            d.seq = map.getLong(entry(i) + 8);
+            return d;
+        }
+
+        /**
+         * Decodes drawings [from, to)
+         * @param from
+         * @param to
+         * @return the drawings, in order
+         * @throws IOException
+         */
+        public ArrayList<Drawing> get(int from, int to) throws IOException {
+            ArrayList<Drawing> drawings = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                drawings.add(get(i));
+            }
+            return drawings;
+        }
+
+        private int entry(int i) {
+            if (i < 0 || i >= count) throw new IndexOutOfBoundsException(i);
+            return indexOffset + i * _INDEX_ENTRY_SIZE;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -17,6 +17,7 @@ import java.awt.image.Raster;
 import java.io.*;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import static java.awt.Image.SCALE_FAST;
 
@@ -69,6 +70,8 @@ public class ClientGUI {
     private FileMenuBar fileMenuBar;
     private File workingFile;
     private String kickUser;
+    // The drawings of each whiteboard visited this run, so that reconnecting is cheap
+    private final HashMap<String, CanvasCache> canvasCaches = new HashMap<>();
 
     /**
      * Creates a client GUI with all the default features (no refunds)
@@ -182,6 +185,15 @@ public class ClientGUI {
 
     }
 
+    /**
+     * Returns the local copy of the drawings of the given whiteboard, creating an empty one on first visit
+     * @param rmiReference
+     * @return
+     */
+    CanvasCache getCanvasCache(String rmiReference) {
+        return canvasCaches.computeIfAbsent(rmiReference, r -> new CanvasCache());
+    }
+
     public void addClientUser(String username) {
         usersListModel.addElement(username);
     }
@@ -396,6 +408,10 @@ public class ClientGUI {
             hostnameFieldLabel.setBounds(0, (_BORDER + _TEXT_HEIGHT), 100, _TEXT_HEIGHT);
             JTextField hostnameField = new JTextField("localhost");
             hostnameField.setBounds(100, (_BORDER + _TEXT_HEIGHT), 200, _TEXT_HEIGHT);
+            JCheckBox directBox = new JCheckBox("Direct");
+            directBox.setBounds(300 + _BORDER, (_BORDER + _TEXT_HEIGHT), 100, _TEXT_HEIGHT);
+            directBox.setToolTipText("Connect directly (hostname[:port]) rather than through RMI; "
+                    + "needed to join from another machine");
 
 
             JLabel nameFieldLabel = new JLabel("Username: ");
@@ -418,7 +434,7 @@ public class ClientGUI {
             connectButton.setBounds(0, 4*(_TEXT_HEIGHT + _BORDER), 100, _TEXT_HEIGHT);
 
 
-            ConnectButtonListener connectListener = new ConnectButtonListener(hostnameField, nameField, passwordField, errorTextArea);
+            ConnectButtonListener connectListener = new ConnectButtonListener(hostnameField, directBox, nameField, passwordField, errorTextArea);
             connectButton.addActionListener(connectListener);
             passwordField.addKeyListener(new PasswordEnterListener(connectListener));
 
@@ -430,6 +446,7 @@ public class ClientGUI {
             this.add(connectButton);
             this.add(hostnameFieldLabel);
             this.add(hostnameField);
+            this.add(directBox);
             this.add(connectionTextArea);
         }
 
@@ -444,18 +461,21 @@ public class ClientGUI {
     class ConnectButtonListener implements ActionListener {
 
         JTextField hostnameField;
+        JCheckBox directBox;
         JTextField nameField;
         JPasswordField passwordField;
         JTextArea errorTextArea;
-        public ConnectButtonListener(JTextField hostnameField, JTextField nameField, JPasswordField passwordField, JTextArea errorTextArea) {
+        public ConnectButtonListener(JTextField hostnameField, JCheckBox directBox, JTextField nameField, JPasswordField passwordField, JTextArea errorTextArea) {
             this.hostnameField = hostnameField;
+            this.directBox = directBox;
             this.nameField = nameField;
             this.passwordField = passwordField;
             this.errorTextArea = errorTextArea;
         }
         public void actionPerformed(ActionEvent e) {
             try {
-                String rmiRef = "//"+hostnameField.getText()+"/Whiteboard";
+                String rmiRef = directBox.isSelected() ? "nio://" + hostnameField.getText().trim()
+                        : "//" + hostnameField.getText().trim() + "/Whiteboard";
                 UserIdentity credentials = new UserIdentity(nameField.getText(), passwordField.getText());
                 canvasMgr = new InteractiveCanvasManager(rmiRef, credentials, _CANVAS_WIDTH, _CANVAS_HEIGHT, ClientGUI.this);
                 canvasMgr.canvas.colourSelected = _DEFAULT_COLOUR;
@@ -1,11 +1,13 @@
 package client;
 
 import drawing.Drawing;
+import drawing.FreeLine;
 import server.IRemoteWhiteboard;
 import util.UserIdentity;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * Remote interface for client canvas manager. The server calls these methods and so mutates the underlying canvas.
@@ -15,9 +17,14 @@ public interface IInteractiveCanvasManager extends Remote {
 
     void addDrawing(UserIdentity uid, Drawing drawing) throws RemoteException;
 
-    void clearCanvas(UserIdentity uid) throws RemoteException;
+    void addDrawings(UserIdentity uid, List<Drawing> drawings) throws RemoteException;
 
-    boolean approveUser(UserIdentity uid, UserIdentity newuid) throws RemoteException;
+    void appendToStroke(UserIdentity uid, FreeLine segment) throws RemoteException;
+
+    void clearCanvas(UserIdentity uid, long seq) throws RemoteException;
+
+    // Admin only: the users currently waiting to be let in, replacing any earlier list
+    void notifyJoinRequests(UserIdentity uid, List<String> usernames) throws RemoteException;
 
     void notifyUserJoin(UserIdentity uid, String username) throws RemoteException;
 
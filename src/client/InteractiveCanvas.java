@@ -9,9 +9,16 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
+import java.awt.image.VolatileImage;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.io.Serializable;
-import java.util.Stack;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BooleanSupplier;
 
 /**
  * Interactive canvas object responsible for drawing and displaying all shapes.
@@ -21,8 +28,24 @@ import java.util.Stack;
  */
 public class InteractiveCanvas extends Canvas implements Serializable {
 
-    // Stack of complete drawings not yet drawn to the canvas flat
-    Stack<Drawing> drawings;
+    // How far (in pixels) a simplified free line may stray from the mouse path, and whether to follow
+    // Douglas-Peucker with Visvalingam-Whyatt
+    private static final double _SIMPLIFY_TOLERANCE = Double.parseDouble(System.getProperty("whiteboard.simplify.tolerance", "1.0"));
+    private static final boolean _SIMPLIFY_VISVALINGAM = Boolean.getBoolean("whiteboard.simplify.visvalingam");
+    // How often (ms) the points of a free line being drawn are streamed to other users
+    private static final long _STROKE_STREAM_INTERVAL = 16;
+    // How many finished free lines to remember, so that segments arriving after their line are ignored
+    private static final int _COMPLETED_STROKES_KEPT = 1024;
+
+    // How often (ms) queued changes from the server are applied and painted: about 60 frames a second
+    private static final int _RENDER_TICK_MS = 16;
+    // Whether to compose frames in an accelerated back buffer where the graphics device supports it
+    private static final boolean _ACCELERATED = !GraphicsEnvironment.isHeadless()
+            && !"false".equals(System.getProperty("whiteboard.accelerated"));
+
+    // Changes from the server (on RMI threads) waiting for the next render tick (on the AWT thread)
+    private final ConcurrentLinkedQueue<RenderEvent> renderQueue = new ConcurrentLinkedQueue<>();
+    private final javax.swing.Timer renderTick = new javax.swing.Timer(_RENDER_TICK_MS, e -> drainRenderQueue());
 
     // Tool selected in the GUI
     String toolSelected = "Free Line";
@@ -36,6 +59,19 @@ public class InteractiveCanvas extends Canvas implements Serializable {
     boolean isTyping;
     // A raw representation of the mouse path when drawing FreeLine
     FreeLine pendingFreeDrawing;
+    // How many points of the pending FreeLine have been streamed, and when they last were
+    int streamedPoints;
+    long lastStreamed;
+    // Other users' free lines that are still being drawn, keyed by artist and drawing id (AWT thread only)
+    final HashMap<String, FreeLine> partialStrokes = new HashMap<>();
+    // Other users' free lines that have been finished, most recent last (AWT thread only). Segments and finished
+    // lines travel by different routes, so a segment can arrive after its line is done.
+    private final LinkedHashMap<String, Boolean> completedStrokes = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > _COMPLETED_STROKES_KEPT;
+        }
+    };
     // The pending representation of the Shape being drawn
     Drawing pendingDrawing;
     // The user's name (used to sign drawings)
@@ -43,12 +79,26 @@ public class InteractiveCanvas extends Canvas implements Serializable {
     String username;
     // The ICM
     InteractiveCanvasManager manager;
-    // The image file that stores all the drawn drawings
-    BufferedImage canvasFlat;
+    // The tiled image that stores all the drawn drawings
+    TiledSurface canvasFlat;
+    // The view onto the board: it is drawn at scale 2^zoom, with the board's origin at screen (-panX, -panY)
+    int zoom = 0;
+    int panX = 0;
+    int panY = 0;
+    // Where the last right/middle-button drag event was, while panning
+    Point panFrom;
+    // The part of the board where the overlay (the user's own shape, line or text in progress) has changed since
+    // the last render tick, in board coordinates (AWT thread only)
+    private Rectangle overlayDirty;
+    // The frame, composed in video memory where possible, then blitted to the screen (AWT thread only).
+    // Null while not yet made, or if accelerated images aren't available, in which case frames are drawn directly.
+    private VolatileImage backBuffer;
+    private boolean accelerated = _ACCELERATED;
 
 
     /**
-     * Create a new interactive canvas with default size, colour, and listeners
+     * Create a new interactive canvas with default size, colour, and listeners.
+     * The board beyond it is unbounded: drag with the right (or middle) button to pan, and scroll to zoom.
      * @param width
      * @param height
      * @param username
@@ -60,27 +110,316 @@ public class InteractiveCanvas extends Canvas implements Serializable {
         this.setBackground(Color.WHITE);
         this.addMouseListener(new InteractiveCanvas.CanvasMouseListener());
         this.addMouseMotionListener(new InteractiveCanvas.CanvasMouseMotionListener());
+        this.addMouseWheelListener(e -> zoomAt(e.getX(), e.getY(), -e.getWheelRotation()));
+        this.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                canvasFlat.setViewSize(getWidth(), getHeight());
+                viewChanged();
+            }
+        });
         this.username = username;
-        this.canvasFlat = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.canvasFlat = new TiledSurface(Color.WHITE);
+        canvasFlat.setViewSize(width, height);
         System.out.println("Canvas created successfully");
 
-        pendingText = new TextEntryDialog();
+        // A headless canvas (e.g. one rendered off-screen by a benchmark) takes no text input
+        if (!GraphicsEnvironment.isHeadless()) {
+            pendingText = new TextEntryDialog();
+        }
+    }
+
+    /**
+     * @return the area of the board currently in view, in board coordinates
+     */
+    Rectangle getViewport() {
+        double s = TiledSurface.scale(zoom);
+        return new Rectangle((int) Math.floor(panX / s), (int) Math.floor(panY / s),
+                (int) Math.ceil(getWidth() / s) + 1, (int) Math.ceil(getHeight() / s) + 1);
+    }
+
+    /**
+     * Zooms in or out by whole levels, keeping the board point under the given screen point where it is
+     * @param x
+     * @param y
+     * @param levels: positive to zoom in
+     */
+    void zoomAt(int x, int y, int levels) {
+        int z = Math.max(TiledSurface._MIN_ZOOM, Math.min(TiledSurface._MAX_ZOOM, zoom + levels));
+        if (z == zoom) return;
+        double factor = TiledSurface.scale(z - zoom);
+        panX = (int) Math.round((x + panX) * factor - x);
+        panY = (int) Math.round((y + panY) * factor - y);
+        zoom = z;
+        viewChanged();
+    }
+
+    /**
+     * Repaints the canvas after the view has moved, and lets the manager know what has come into view
+     */
+    private void viewChanged() {
+        repaint();
+        if (manager != null) {
+            manager.viewChanged();
+        }
+    }
+
+    /**
+     * Converts a mouse position to the board coordinate under it
+     */
+    private int boardX(MouseEvent e) {
+        return (int) Math.floor((e.getX() + panX) / TiledSurface.scale(zoom));
+    }
+
+    private int boardY(MouseEvent e) {
+        return (int) Math.floor((e.getY() + panY) / TiledSurface.scale(zoom));
+    }
+
+    /**
+     * Clamps a board coordinate into the range a FreeLine point can hold
+     */
+    private static short toPoint(int v) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+    }
+
+    /**
+     * Queues a finished drawing to be flattened on the next render tick. Safe to call from any thread.
+     * @param d
+     */
+    void addDrawing(Drawing d) {
+        post(() -> canvasFlat.draw(d));
+    }
+
+    /**
+     * Queues finished drawings to be flattened, in order, on the next render tick. Safe to call from any thread.
+     * @param ds
+     */
+    void addDrawings(Collection<Drawing> ds) {
+        if (ds.isEmpty()) return;
+        post(() -> {
+            Rectangle dirty = null;
+            for (Drawing d : ds) {
+                Rectangle r = canvasFlat.draw(d);
+                dirty = dirty == null ? r : dirty.union(r);
+            }
+            return dirty;
+        });
+    }
+
+    /**
+     * Queues drawings fetched by region, which are older than some already on the canvas, to be layered in under
+     * them on the next render tick. Dropped if they are no longer wanted by then (e.g. the canvas was cleared).
+     * Safe to call from any thread.
+     * @param ds
+     * @param wanted
+     */
+    void loadDrawings(Collection<Drawing> ds, BooleanSupplier wanted) {
+        if (ds.isEmpty()) return;
+        post(() -> wanted.getAsBoolean() ? canvasFlat.load(ds) : null);
+    }
+
+    /**
+     * Queues a wipe of the canvas. Safe to call from any thread.
+     */
+    void clear() {
+        post(() -> {
+            partialStrokes.clear();
+            canvasFlat.clear();
+            return getViewport();
+        });
+    }
+
+    /**
+     * Queues an extension to (or the start of) the live preview of another user's free line, unless the line has
+     * already been finished. Safe to call from any thread.
+     * @param segment
+     */
+    void appendPartialStroke(FreeLine segment) {
+        post(() -> {
+            String key = strokeKey(segment);
+            if (completedStrokes.containsKey(key)) return null;
+            FreeLine partial = partialStrokes.putIfAbsent(key, segment);
+            if (partial != null) {
+                partial.append(segment);
+            }
+            return segment.getBounds();
+        });
+    }
+
+    /**
+     * Queues removal of the live preview of a free line, once its finished form has arrived.
+     * Safe to call from any thread.
+     * @param drawing
+     */
+    void completeStroke(Drawing drawing) {
+        if (drawing instanceof FreeLine) {
+            post(() -> {
+                String key = strokeKey(drawing);
+                completedStrokes.put(key, Boolean.TRUE);
+                FreeLine partial = partialStrokes.remove(key);
+                return partial == null ? null : partial.getBounds();
+            });
+        }
+    }
+
+    /**
+     * Queues removal of the live previews of a user who has left mid-stroke. Safe to call from any thread.
+     * @param artist
+     */
+    void dropPartialStrokes(String artist) {
+        post(() -> {
+            Rectangle dirty = null;
+            for (Iterator<FreeLine> it = partialStrokes.values().iterator(); it.hasNext(); ) {
+                FreeLine partial = it.next();
+                if (artist.equals(partial.getArtist())) {
+                    dirty = dirty == null ? partial.getBounds() : dirty.union(partial.getBounds());
+                    it.remove();
+                }
+            }
+            return dirty;
+        });
+    }
+
+    /**
+     * A change to the canvas, made on the AWT thread during a render tick
+     */
+    @FunctionalInterface
+    private interface RenderEvent {
+        // Returns the area that changed, or null
+        Rectangle apply();
+    }
+
+    private void post(RenderEvent event) {
+        renderQueue.add(event);
+    }
+
+    /**
+     * Marks part of the board as changed by the overlay. Mouse and key events only mark what moved: the old and
+     * new bounds of what is being drawn. The area is repainted at the next render tick, so however fast events
+     * arrive, the overlay costs at most one small repaint a frame.
+     * @param r: in board coordinates
+     */
+    private void overlayChanged(Rectangle r) {
+        if (r == null || r.isEmpty()) return;
+        overlayDirty = overlayDirty == null ? r : overlayDirty.union(r);
     }
 
     /**
-     * Renders each drawing in sequence, including incomplete/pending drawings
+     * The render tick: applies every queued change in arrival order, then repaints the area they and the overlay
+     * changed, once
+     */
+    private void drainRenderQueue() {
+        Rectangle dirty = overlayDirty;
+        overlayDirty = null;
+        RenderEvent event;
+        while ((event = renderQueue.poll()) != null) {
+            Rectangle r = event.apply();
+            if (r != null && !r.isEmpty()) {
+                dirty = dirty == null ? r : dirty.union(r);
+            }
+        }
+        if (dirty != null) {
+            repaint(dirty);
+        }
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        renderTick.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        renderTick.stop();
+        if (backBuffer != null) {
+            backBuffer.flush();
+            backBuffer = null;
+        }
+        super.removeNotify();
+    }
+
+    /**
+     * Repaints the part of the screen showing an area of the board
+     * @param r: in board coordinates
+     */
+    private void repaint(Rectangle r) {
+        double s = TiledSurface.scale(zoom);
+        int x = (int) Math.floor(r.x * s) - panX;
+        int y = (int) Math.floor(r.y * s) - panY;
+        repaint(x, y, (int) Math.ceil((r.x + r.width) * s) - panX - x + 1, (int) Math.ceil((r.y + r.height) * s) - panY - y + 1);
+    }
+
+    /**
+     * Paint directly over the previous frame: every pixel of the clip is covered by a tile, so the default
+     * clear-to-background step would only cause flicker
      * @param g   the specified Graphics context
      */
     @Override
-    public void paint(Graphics g) {
+    public void update(Graphics g) {
+        paint(g);
+    }
 
-        // Paint all new drawings to the canvas flat
-        while (!drawings.isEmpty()) {
-            Drawing d = drawings.pop();
-            d.drawToGraphics(canvasFlat.getGraphics());
+    /**
+     * Composes the part of the frame inside the clip (the area that was asked to be repainted) in the back buffer,
+     * then blits it to the screen. The back buffer lives in video memory, so the OS may take it away at any time
+     * (e.g. on a display mode change): it is then remade or restored, and the frame composed again, in full.
+     * Without an accelerated back buffer, the frame is drawn straight to the screen instead.
+     * @param graphics   the specified Graphics context
+     */
+    @Override
+    public void paint(Graphics graphics) {
+        Rectangle clip = graphics.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        if (!accelerated || getWidth() <= 0 || getHeight() <= 0) {
+            render(graphics, clip);
+            return;
         }
+        do {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            if (gc == null) {
+                render(graphics, clip);
+                return;
+            }
+            Rectangle area = clip;
+            int valid = backBuffer == null ? VolatileImage.IMAGE_INCOMPATIBLE : backBuffer.validate(gc);
+            if (valid == VolatileImage.IMAGE_INCOMPATIBLE
+                    || backBuffer.getWidth() != getWidth() || backBuffer.getHeight() != getHeight()) {
+                if (backBuffer != null) backBuffer.flush();
+                backBuffer = createVolatileImage(getWidth(), getHeight());
+                if (backBuffer == null || !backBuffer.getCapabilities().isAccelerated()) {
+                    // e.g. a virtual framebuffer: nothing to gain from another copy of every frame
+                    backBuffer = null;
+                    accelerated = false;
+                    render(graphics, clip);
+                    return;
+                }
+                area = new Rectangle(0, 0, getWidth(), getHeight());
+            } else if (valid == VolatileImage.IMAGE_RESTORED) {
+                area = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            Graphics2D g = backBuffer.createGraphics();
+            g.clip(area);
+            render(g, area);
+            g.dispose();
+            graphics.drawImage(backBuffer, 0, 0, null);
+        } while (backBuffer.contentsLost());
+    }
 
-        g.drawImage(canvasFlat, 0, 0, this);
+    /**
+     * Renders the flattened drawings, then any incomplete/pending drawings on top.
+     * Only the tiles inside the clip are blitted.
+     * @param graphics
+     * @param clip: in screen coordinates
+     */
+    void render(Graphics graphics, Rectangle clip) {
+
+        canvasFlat.paint(graphics, clip, zoom, panX, panY);
+
+        // Everything else is drawn in board coordinates
+        Graphics2D g = (Graphics2D) graphics.create();
+        g.translate(-panX, -panY);
+        g.scale(TiledSurface.scale(zoom), TiledSurface.scale(zoom));
 
         // Draw the pending drawing to the canvas flat (live!)
         if (isDrawing) {
@@ -92,9 +431,30 @@ public class InteractiveCanvas extends Canvas implements Serializable {
             pendingFreeDrawing.drawToGraphics(g);
         }
 
-        if (pendingText.isVisible()) {
+        for (FreeLine partial : partialStrokes.values()) {
+            partial.drawToGraphics(g);
+        }
+
+        if (pendingText != null && pendingText.isVisible()) {
             pendingText.text.drawToGraphics(g);
         }
+        g.dispose();
+    }
+
+    private static String strokeKey(Drawing drawing) {
+        return drawing.getArtist() + "#" + drawing.localId;
+    }
+
+    /**
+     * Sends the points drawn since the last segment, if any
+     */
+    private void streamPendingStroke() {
+        int from = Math.max(0, streamedPoints - 1);  // overlap by one point so the segments join up
+        if (pendingFreeDrawing.size() > streamedPoints) {
+            manager.streamStroke(pendingFreeDrawing.tail(from));
+            streamedPoints = pendingFreeDrawing.size();
+        }
+        lastStreamed = System.currentTimeMillis();
     }
 
     public class TextEntryDialog extends JDialog {
@@ -110,20 +470,31 @@ public class InteractiveCanvas extends Canvas implements Serializable {
         }
 
         public void reset(int x, int y) {
-            text = new Text(username, 0, colourSelected);
-            text.setCharArray("");
-            text.startx = x;
-            text.starty = y;
+            text = blankText(x, y);
+            text.localId = manager.nextLocalId();
             this.setVisible(true);
         }
 
         public void submit() {
-            text.timestamp = System.currentTimeMillis();
-            text.setCharArray(textEntryField.getText());
-            manager.sendDrawing(text);
+            Text sent = text;
+            sent.timestamp = System.currentTimeMillis();
+            sent.setCharArray(textEntryField.getText());
+            // The sent text is serialized later, on the outbound thread: from here on it must not change, so the
+            // key release that follows Enter edits a fresh one instead
+            text = blankText(sent.startx, sent.starty);
+            manager.sendDrawing(sent);
             textEntryField.setText("");
 
             this.setVisible(false);
+            overlayChanged(sent.getBounds());
+        }
+
+        private Text blankText(int x, int y) {
+            Text blank = new Text(username, 0, colourSelected);
+            blank.setCharArray("");
+            blank.startx = x;
+            blank.starty = y;
+            return blank;
         }
 
         public class EnterListener implements KeyListener {
@@ -142,8 +513,9 @@ public class InteractiveCanvas extends Canvas implements Serializable {
 
             @Override
             public void keyReleased(KeyEvent e) {
+                Rectangle before = text.getBounds();
                 text.setCharArray(textEntryField.getText());
-                InteractiveCanvas.this.repaint();
+                overlayChanged(before.union(text.getBounds()));
             }
         }
     }
@@ -163,12 +535,21 @@ public class InteractiveCanvas extends Canvas implements Serializable {
 
         public void mousePressed(MouseEvent e) {
 
+            if (!SwingUtilities.isLeftMouseButton(e)) {
+                if (!isDrawing && !isFreeDrawing) {
+                    panFrom = e.getPoint();
+                }
+                return;
+            }
             if (toolSelected.equals("Text")) {
                 isTyping = true;
-                pendingText.reset(e.getX(), e.getY());
+                pendingText.reset(boardX(e), boardY(e));
             } else if (toolSelected.equals("Free Line")) {
                 pendingFreeDrawing = new drawing.FreeLine(username, 0, colourSelected);
                 pendingFreeDrawing.colour = colourSelected;
+                pendingFreeDrawing.localId = manager.nextLocalId();
+                streamedPoints = 0;
+                lastStreamed = System.currentTimeMillis();
                 isFreeDrawing = true;
                 return;
             } else {
@@ -188,33 +569,41 @@ public class InteractiveCanvas extends Canvas implements Serializable {
                         break;
                 }
                 pendingDrawing.colour = colourSelected;
-                pendingDrawing.startx = e.getX();
-                pendingDrawing.starty = e.getY();
-                pendingDrawing.endx = e.getX();
-                pendingDrawing.endy = e.getY();
+                pendingDrawing.localId = manager.nextLocalId();
+                pendingDrawing.startx = boardX(e);
+                pendingDrawing.starty = boardY(e);
+                pendingDrawing.endx = boardX(e);
+                pendingDrawing.endy = boardY(e);
             }
         }
 
         // If drawing, mouse release => finish drawing. Sends to server instantly
         public void mouseReleased(MouseEvent e) {
+            if (!SwingUtilities.isLeftMouseButton(e)) {
+                panFrom = null;
+                return;
+            }
             if (toolSelected.equals("Text")) {
                 return;
             }
             if (isFreeDrawing) {
                 pendingFreeDrawing.timestamp = System.currentTimeMillis();
-                // De-interpolate the drawing to minimise object size (4 bytes per point!)
-                pendingFreeDrawing.optimise(5);
+                // Simplify the drawing to minimise object size and render cost
+                pendingFreeDrawing.optimise(_SIMPLIFY_TOLERANCE, _SIMPLIFY_VISVALINGAM);
                 manager.sendDrawing(pendingFreeDrawing);
                 isFreeDrawing = false;
+                overlayChanged(pendingFreeDrawing.getBounds());
                 return;
             }
             if (isDrawing) {
-                pendingDrawing.endx = e.getX();
-                pendingDrawing.endy = e.getY();
+                Rectangle before = pendingDrawing.getBounds();
+                pendingDrawing.endx = boardX(e);
+                pendingDrawing.endy = boardY(e);
 
                 pendingDrawing.timestamp = System.currentTimeMillis();
                 manager.sendDrawing(pendingDrawing);
                 isDrawing = false;
+                overlayChanged(before.union(pendingDrawing.getBounds()));
                 return;
             }
         }
@@ -243,15 +632,29 @@ public class InteractiveCanvas extends Canvas implements Serializable {
 
         public void mouseDragged(MouseEvent e) {
 
+            if (panFrom != null) {
+                panX -= e.getX() - panFrom.x;
+                panY -= e.getY() - panFrom.y;
+                panFrom = e.getPoint();
+                viewChanged();
+                return;
+            }
+
             if (isFreeDrawing) {
-                pendingFreeDrawing.addPoint((short) e.getX(), (short) e.getY());
-                InteractiveCanvas.this.repaint();
+                pendingFreeDrawing.addPoint(toPoint(boardX(e)), toPoint(boardY(e)));
+                if (e.getWhen() - lastStreamed >= _STROKE_STREAM_INTERVAL) {
+                    streamPendingStroke();
+                }
+                // Only the newest segment has changed
+                overlayChanged(pendingFreeDrawing.getBounds(pendingFreeDrawing.size() - 2));
             }
 
             if (isDrawing && !toolSelected.equals("Free Line")) {
-                pendingDrawing.endx = e.getX();
-                pendingDrawing.endy = e.getY();
-                InteractiveCanvas.this.repaint();
+                // The rubber band moves: repaint where it was and where it is now
+                Rectangle before = pendingDrawing.getBounds();
+                pendingDrawing.endx = boardX(e);
+                pendingDrawing.endy = boardY(e);
+                overlayChanged(before.union(pendingDrawing.getBounds()));
             }
         }
     }
@@ -1,23 +1,39 @@
 package client;
 
 import drawing.Drawing;
+import drawing.FreeLine;
+import drawing.Picture;
+import server.CanvasDelta;
 import server.IRemoteWhiteboard;
+import server.RateLimitedException;
+import transport.Connection;
+import transport.NioEndpoint;
 import util.UserIdentity;
 
 import javax.swing.*;
 import javax.swing.event.PopupMenuEvent;
 import javax.swing.event.PopupMenuListener;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages the interactive canvas and exists as a remote object that communicates with server
@@ -31,13 +47,59 @@ public class InteractiveCanvasManager extends UnicastRemoteObject implements IIn
 
     protected final UserIdentity uid;
     private final IRemoteWhiteboard remoteWhiteboard;
+    // The connection to the server, if connected over NIO rather than RMI
+    private final Connection connection;
+    private static final int _NIO_DEFAULT_PORT = 1100;
+    // The largest call or reply the server may send over a direct connection: a whole canvas, on joining
+    private static final int _NIO_MAX_FRAME = 64 << 20;
     protected InteractiveCanvas canvas;
-    private volatile int approved = 0;
+    // Our copy of the server's drawings, kept by the GUI between connections to the same whiteboard
+    private final CanvasCache cache;
+    // Users waiting for the admin to let them in, and the window listing them (AWT thread only)
+    private final DefaultListModel<String> joinRequests = new DefaultListModel<>();
+    private JDialog joinDialog;
     private boolean admin = false;
     protected ClientGUI gui;
+    // Sends drawings and stroke segments to the server in order, off the AWT thread
+    private final ExecutorService outbound = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "whiteboard-outbound");
+        t.setDaemon(true);
+        return t;
+    });
+    // Fills gaps in the drawing sequence and reports progress to the server, off the RMI threads
+    private final ScheduledExecutorService sync = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "whiteboard-sync");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean gapCheckScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean ackScheduled = new AtomicBoolean(false);
+    // How long a gap in the sequence may persist before we ask the server to fill it, and how often we ack
+    private static final long _GAP_TIMEOUT_MS = 250;
+    private static final long _ACK_INTERVAL_MS = 500;
+    private static final int _SEND_ATTEMPTS = 3;
+    // Drawings per call when sending an opened file to the server
+    private static final int _UPLOAD_BATCH = 512;
+    // While the cache is partial, the board is fetched a block at a time as it comes into view (sync thread only):
+    // the blocks fetched so far, and the drawings they have brought
+    private final HashSet<Long> loadedBlocks = new HashSet<>();
+    private final HashSet<Long> loadedSeqs = new HashSet<>();
+    // Fetched blocks supply the drawings in (regionFloor, regionSeq]: the ones before had already arrived in
+    // sequence, and the ones after arrive in sequence as they are drawn. Unknown until the first fetch.
+    private long regionFloor;
+    private long regionSeq = -1;
+    private final AtomicBoolean viewLoadScheduled = new AtomicBoolean(false);
+    // Counts clears, so that a region fetched before one isn't drawn after it
+    private final AtomicLong clears = new AtomicLong();
+    private volatile boolean joined = false;
+    // The side of a block of the board fetched at once, in board pixels
+    private static final int _REGION_BLOCK = 1024;
+    // Seeded from the clock so that ids stay unique for this artist across reconnects
+    private final AtomicLong nextLocalId = new AtomicLong(System.currentTimeMillis() << 16);
 
     /**
      * Creates a new ICM that communicates with the remote whiteboard, and manages the display of the canvas.
+     * The reference is either an RMI name (//host/Whiteboard) or a direct connection (nio://host:port).
      * @param rmiReference
      * @param uid
      * @param width
@@ -48,33 +110,188 @@ public class InteractiveCanvasManager extends UnicastRemoteObject implements IIn
 
         this.uid = uid;
         this.gui = gui;
+        this.cache = gui == null ? new CanvasCache() : gui.getCanvasCache(rmiReference);
 
-        //FIXME: expand beyond localhost?
-        String hostname = "localhost";
+        // The canvas must exist before joining, as the server may start sending drawings straight away
+        this.canvas = new InteractiveCanvas(width, height, uid.username, this);
 
-        try {
-            Naming.rebind("//"+hostname+"/" + uid.username, this);
-        } catch (RemoteException | MalformedURLException e) {
-            throw new Exception("Error RMI binding self");
+        if (rmiReference.startsWith("nio://")) {
+            // One direct connection, carrying our calls to the server and its calls back to us
+            URI uri = URI.create(rmiReference);
+            try {
+                this.connection = NioEndpoint.connect(uri.getHost(), uri.getPort() < 0 ? _NIO_DEFAULT_PORT : uri.getPort(),
+                        _NIO_MAX_FRAME, IRemoteWhiteboard._NIO_CLASSES, IInteractiveCanvasManager.class, this,
+                        IRemoteWhiteboard.class);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new Exception("Couldn't find that whiteboard");
+            }
+            this.remoteWhiteboard = connection.getProxy();
+        } else {
+            this.connection = null;
+
+            // The server looks us up in the registry by username, and a registry only takes binds from its own
+            // machine: over RMI, client and server must share one. From elsewhere, connect directly (nio://)
+            String hostname = "localhost";
+
+            try {
+                Naming.rebind("//"+hostname+"/" + uid.username, this);
+            } catch (RemoteException | MalformedURLException e) {
+                throw new Exception("Error RMI binding self");
+            }
+
+            try {
+                this.remoteWhiteboard = (IRemoteWhiteboard) Naming.lookup(rmiReference);
+            } catch (Exception e) {
+                throw new Exception("Couldn't find that whiteboard");
+            }
         }
 
-        try {
-            this.remoteWhiteboard = (IRemoteWhiteboard) Naming.lookup(rmiReference);
-        } catch (Exception e) {
-            throw new Exception("Couldn't find that whiteboard");
+        // First visit (or the last one never needed the whole canvas): only what comes into view will be fetched
+        boolean firstVisit = cache.getSeq() == 0 || cache.isPartial();
+        if (firstVisit) {
+            cache.restart();
         }
 
-        if (!remoteWhiteboard.startWhiteboard(uid)) {
-            if (!remoteWhiteboard.joinWhiteboard(uid)) {
+        String token = remoteWhiteboard.startWhiteboard(uid);
+        if (token == null) {
+            token = remoteWhiteboard.joinWhiteboard(uid);
+            if (token == null) {
                 throw new Exception("Join rejected");
             }
         } else {
             admin = true;
         }
+        uid.token = token;
 
-        this.canvas = new InteractiveCanvas(width, height, uid.username, this);
-        canvas.drawings = new Stack<>();
-        canvas.drawings.addAll(remoteWhiteboard.getCanvas(uid));
+        if (firstVisit) {
+            // Fetch what is in view, and the rest of the board only as it comes into view
+            canvas.clear();
+            joined = true;
+            sync.execute(this::loadView);
+        } else {
+            // Fetch only what we've missed since we were last here
+            CanvasDelta delta = remoteWhiteboard.getCanvasSince(uid, cache.getSeq());
+            cache.apply(delta);
+            canvas.clear();
+            canvas.addDrawings(cache.getDrawings());
+            joined = true;
+        }
+    }
+
+    /**
+     * Called by the canvas when the view moves, to fetch any part of the board that has come into view
+     */
+    void viewChanged() {
+        if (viewLoadScheduled.compareAndSet(false, true)) {
+            sync.execute(this::loadView);
+        }
+    }
+
+    /**
+     * While the cache is partial, fetches the drawings in every block of the view not yet fetched, in one call,
+     * and layers them in under what is already on the canvas
+     */
+    private void loadView() {
+        viewLoadScheduled.set(false);
+        if (!joined || !cache.isPartial()) return;
+        Rectangle view = canvas.getViewport();
+        ArrayList<Long> blocks = new ArrayList<>();
+        Rectangle missing = null;
+        for (long by = Math.floorDiv(view.y, _REGION_BLOCK); by <= Math.floorDiv(view.y + view.height - 1, _REGION_BLOCK); by++) {
+            for (long bx = Math.floorDiv(view.x, _REGION_BLOCK); bx <= Math.floorDiv(view.x + view.width - 1, _REGION_BLOCK); bx++) {
+                long block = block(bx, by);
+                if (!loadedBlocks.contains(block)) {
+                    blocks.add(block);
+                    Rectangle r = new Rectangle((int) bx * _REGION_BLOCK, (int) by * _REGION_BLOCK, _REGION_BLOCK, _REGION_BLOCK);
+                    missing = missing == null ? r : missing.union(r);
+                }
+            }
+        }
+        if (missing == null) return;
+        long clearsBefore = clears.get();
+        try {
+            CanvasDelta region = remoteWhiteboard.getCanvasRegion(uid, missing.x, missing.y, missing.width, missing.height);
+            if (region == null) return;
+            if (regionSeq < 0) {
+                // The first fetch decides where the cache starts
+                List<Drawing> ready;
+                synchronized (cache) {
+                    regionFloor = cache.getSeq();
+                    regionSeq = region.seq;
+                    ready = cache.startAt(region.seq);
+                }
+                deliver(ready);
+            }
+            ArrayList<Drawing> older = new ArrayList<>();
+            for (Drawing d : region.getDrawings()) {
+                if (d.seq <= regionFloor || d.seq > regionSeq) continue;
+                // The server's checkpoint tiles share one seq; each lies within a single block
+                if (d instanceof Picture ? blocks.contains(block(Math.floorDiv(d.startx, _REGION_BLOCK), Math.floorDiv(d.starty, _REGION_BLOCK))) : loadedSeqs.add(d.seq)) {
+                    older.add(d);
+                }
+            }
+            loadedBlocks.addAll(blocks);
+            canvas.loadDrawings(older, () -> clears.get() == clearsBefore && cache.isPartial());
+        } catch (IOException ignored) {}
+    }
+
+    private static long block(long bx, long by) {
+        return (bx << 32) | (by & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Passes drawings that are ready (in sequence) to the canvas, and arranges for any gap to be filled
+     * @param ready
+     */
+    private void deliver(List<Drawing> ready) {
+        if (!ready.isEmpty()) {
+            canvas.addDrawings(ready);
+            scheduleAck();
+        }
+        if (cache.hasGap() && gapCheckScheduled.compareAndSet(false, true)) {
+            sync.schedule(this::fillGap, _GAP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * If drawings are still waiting on a predecessor that never arrived (e.g. a callback failed), fetches
+     * everything after the last drawing we have in sequence
+     */
+    private void fillGap() {
+        gapCheckScheduled.set(false);
+        if (cache.hasGap()) {
+            resync();
+        }
+    }
+
+    /**
+     * Fetches everything after the last drawing we have in sequence, and passes it to the canvas
+     * (redrawing the canvas from scratch if the server sends the whole of it)
+     */
+    private void resync() {
+        try {
+            CanvasDelta delta = remoteWhiteboard.getCanvasSince(uid, cache.getSeq());
+            if (delta == null) return;
+            List<Drawing> ready = cache.apply(delta);
+            if (delta.reset) {
+                canvas.clear();
+            }
+            deliver(ready);
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Tells the server (at most every half second) how far through the drawing sequence we are
+     */
+    private void scheduleAck() {
+        if (ackScheduled.compareAndSet(false, true)) {
+            sync.schedule(() -> {
+                ackScheduled.set(false);
+                try {
+                    remoteWhiteboard.acknowledge(uid, cache.getSeq());
+                } catch (RemoteException ignored) {}
+            }, _ACK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -84,19 +301,54 @@ public class InteractiveCanvasManager extends UnicastRemoteObject implements IIn
      */
     public void addDrawing(UserIdentity you, Drawing drawing) throws RemoteException {
         if (!you.is(uid)) return;
-        canvas.drawings.add(drawing);
-        canvas.repaint();
+        canvas.completeStroke(drawing);
+        deliver(cache.offer(drawing));
+    }
+
+    /**
+     * Called by the server: extends another user's free line that is still being drawn
+     * @param segment
+     * @throws RemoteException
+     */
+    public void appendToStroke(UserIdentity you, FreeLine segment) throws RemoteException {
+        if (!you.is(uid)) return;
+        canvas.appendPartialStroke(segment);
+    }
+
+    /**
+     * Called by the server: adds a batch of drawings to the user's canvas, in order, with a single repaint.
+     * @param drawings
+     * @throws RemoteException
+     */
+    public void addDrawings(UserIdentity you, List<Drawing> drawings) throws RemoteException {
+        if (!you.is(uid)) return;
+        ArrayList<Drawing> ready = new ArrayList<>(drawings.size());
+        for (Drawing drawing : drawings) {
+            ready.addAll(cache.offer(drawing));
+        }
+        deliver(ready);
     }
 
     /**
-     * Called by the server: clears the user's canvas.
+     * Called by the server: clears the user's canvas of every drawing up to the given sequence number.
+     * Drawings after it that have already arrived are kept.
      * @throws RemoteException
      */
-    public void clearCanvas(UserIdentity you) throws RemoteException {
+    public void clearCanvas(UserIdentity you, long seq) throws RemoteException {
         if (!you.is(uid)) return;
-        canvas.drawings = new Stack<>();
-        canvas.canvasFlat = new BufferedImage(canvas.canvasFlat.getWidth(), canvas.canvasFlat.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        canvas.repaint();
+        List<Drawing> kept = cache.clear(seq);
+        clears.incrementAndGet();
+        canvas.clear();
+        canvas.addDrawings(kept);
+        if (cache.isPartial()) {
+            // The clear was older than the cache's start, and wiped drawings fetched by region from after it
+            sync.execute(() -> {
+                loadedBlocks.clear();
+                loadedSeqs.clear();
+                loadView();
+            });
+        }
+        scheduleAck();
     }
 
     /**
@@ -110,62 +362,122 @@ public class InteractiveCanvasManager extends UnicastRemoteObject implements IIn
 
     /**
      * Called by the canvas when a drawing is complete, i.e. the mouse has been released.
-     * Sends the drawing object to the server
+     * Queues the drawing object to be sent to the server
      * @param drawing
      */
     protected void sendDrawing(Drawing drawing) {
-        try {
-            remoteWhiteboard.drawToCanvas(uid, drawing);
-        } catch (RemoteException ignored) {}
+        outbound.execute(() -> {
+            // The server ignores a drawing it has already accepted, so it is safe to retry
+            for (int attempt = 0; attempt < _SEND_ATTEMPTS; attempt++) {
+                try {
+                    remoteWhiteboard.drawToCanvas(uid, drawing);
+                    return;
+                } catch (RemoteException e) {
+                    RateLimitedException limited = RateLimitedException.of(e);
+                    if (limited != null) {
+                        // Over budget: hold this (and everything queued behind it) back as long as the server asks
+                        attempt--;
+                    }
+                    try {
+                        Thread.sleep(limited != null ? limited.getRetryAfterMillis() : 100L << attempt);
+                    } catch (InterruptedException i) {
+                        return;
+                    }
+                }
+            }
+        });
     }
 
     /**
-     * Called by the server when a new user requests to join the whiteboard. Recursively calls the private method
-     * @param uid
-     * @return
+     * Called by the canvas while a free line is being drawn, with the points added since the last segment.
+     * Queued behind any earlier segments, and ahead of the finished line.
+     * @param segment
      */
-    public boolean approveUser(UserIdentity you, UserIdentity uid) throws RemoteException {
-        if (!you.is(uid)) return false;
-        return _approveUser(uid);
+    protected void streamStroke(FreeLine segment) {
+        outbound.execute(() -> {
+            try {
+                remoteWhiteboard.appendToStroke(uid, segment);
+            } catch (RemoteException ignored) {}
+        });
     }
 
     /**
-     * Launches a dialog on the user's (admin) screen to ask approval for a new user.
-     * On "yes", the join is approved. On "no" or window close, the join is rejected.
-     * @param uid
-     * @return
+     * @return a new id for a drawing by this user
      */
-    private boolean _approveUser(UserIdentity uid) {
-        approved = 0;
-        JDialog d = new JDialog((JFrame) canvas.getParent().getParent().getParent().getParent(), "Approve user");
-        d.setResizable(false);
-        d.setSize(300, 100);
-
-        d.setLayout(new FlowLayout());
-
-        JLabel label = new JLabel("Approve " + uid.username + "?\n");
-        JButton yes = new JButton("Yes");
-        JButton no = new JButton("No");
-
-        yes.addActionListener(e -> {
-            approved = 1;
-        });
-        no.addActionListener(e -> {
-            approved = -1;
-        });
-
-        d.add(label);
-        d.add(yes);
-        d.add(no);
+    protected long nextLocalId() {
+        return nextLocalId.incrementAndGet();
+    }
 
-        d.setVisible(true);
+    /**
+     * Called by the server (admin only) whenever the list of users waiting to join changes. Shows them in the
+     * join requests window, or hides it when no one is waiting.
+     * @param you
+     * @param usernames
+     * @throws RemoteException
+     */
+    public void notifyJoinRequests(UserIdentity you, List<String> usernames) throws RemoteException {
+        if (!you.is(uid)) return;
+        SwingUtilities.invokeLater(() -> showJoinRequests(usernames));
+    }
 
-        while (approved == 0 && d.isVisible()) {
-            Thread.onSpinWait();
+    /**
+     * Runs on the AWT thread. The window is not modal: the admin can keep drawing, and decide on several
+     * requests at once whenever they like. Closing it refuses everyone in it.
+     * @param usernames
+     */
+    private void showJoinRequests(List<String> usernames) {
+        joinRequests.clear();
+        for (String username : usernames) {
+            joinRequests.addElement(username);
         }
+        if (joinDialog == null) {
+            joinDialog = new JDialog(SwingUtilities.getWindowAncestor(canvas), "Join requests");
+            joinDialog.setSize(300, 200);
+            joinDialog.setLayout(new BorderLayout());
+            joinDialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+
+            JList<String> list = new JList<>(joinRequests);
+            list.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+            JButton approve = new JButton("Approve");
+            JButton reject = new JButton("Reject");
+            JButton approveAll = new JButton("Approve all");
+
+            approve.addActionListener(e -> decideJoins(list.getSelectedValuesList(), true));
+            reject.addActionListener(e -> decideJoins(list.getSelectedValuesList(), false));
+            approveAll.addActionListener(e -> decideJoins(Collections.list(joinRequests.elements()), true));
+            joinDialog.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    decideJoins(Collections.list(joinRequests.elements()), false);
+                }
+            });
+
+            JPanel buttons = new JPanel(new FlowLayout());
+            buttons.add(approve);
+            buttons.add(reject);
+            buttons.add(approveAll);
+            joinDialog.add(new JLabel("Waiting to join:"), BorderLayout.NORTH);
+            joinDialog.add(new JScrollPane(list), BorderLayout.CENTER);
+            joinDialog.add(buttons, BorderLayout.SOUTH);
+            joinDialog.setLocationRelativeTo(joinDialog.getOwner());
+        }
+        joinDialog.setVisible(!usernames.isEmpty());
+    }
 
-        d.dispose();
-        return approved == 1;
+    /**
+     * Sends the admin's decision on some waiting users to the server, off the AWT thread. The server replies
+     * with the updated list of who is still waiting.
+     * @param usernames
+     * @param approve
+     */
+    private void decideJoins(List<String> usernames, boolean approve) {
+        if (usernames.isEmpty()) return;
+        ArrayList<String> batch = new ArrayList<>(usernames);
+        outbound.execute(() -> {
+            try {
+                remoteWhiteboard.decideJoins(uid, batch, approve);
+            } catch (RemoteException ignored) {}
+        });
     }
 
     /**
@@ -175,6 +487,9 @@ public class InteractiveCanvasManager extends UnicastRemoteObject implements IIn
         try {
             remoteWhiteboard.notifyDisconnect(uid);
         } catch (RemoteException ignored) {}
+        if (connection != null) {
+            connection.close();
+        }
     }
 
     /**
@@ -193,6 +508,7 @@ public class InteractiveCanvasManager extends UnicastRemoteObject implements IIn
      */
     public void notifyUserLeft(UserIdentity you, String username) throws RemoteException {
         if (!you.is(uid)) return;
+        canvas.dropPartialStrokes(username);
         gui.rmClientUser(username);
     }
 
@@ -223,49 +539,61 @@ public class InteractiveCanvasManager extends UnicastRemoteObject implements IIn
     public void sendToChat(String message) {
         try {
             remoteWhiteboard.sendMessage(uid, message);
-        } catch (RemoteException ignored) {}
+        } catch (RemoteException e) {
+            if (RateLimitedException.of(e) != null) {
+                gui.postToChat("Not sent", "too many messages, try again in a moment");
+            }
+        }
     }
 
     /**
-     * Downloads the array of drawings stored at the server, and serialises them into a .canvas file
+     * Saves the canvas to a .canvas file, straight from our own copy of it rather than fetching it from the server,
+     * unless we have only fetched the parts of the board that have been in view, or our copy has the server's
+     * checkpoint pictures in place of the drawings they show
      * Called by the GUI when user requests saving canvas
      * @param file
      */
     public void download(File file){
         try {
-            ObjectOutputStream write = new ObjectOutputStream(new FileOutputStream(file));
-            write.writeObject(remoteWhiteboard.getCanvas(uid));
-            write.close();
-        } catch (Exception e) {
+            ArrayList<Drawing> drawings = cache.isPartial() ? null : cache.getDrawings();
+            if (drawings == null || drawings.stream().anyMatch(d -> d instanceof Picture)) {
+                drawings = remoteWhiteboard.getCanvas(uid);
+            }
+            if (drawings == null) return;
+            CanvasFile.write(file, drawings);
+        } catch (IOException e) {
             System.out.println("Saving whiteboard failed!");
         }
     }
 
     /**
-     * Reads the stored .canvas file and sends all drawings to the server
+     * Reads the stored .canvas file and sends all drawings to the server, in batches, so the canvas fills in
+     * progressively as each batch comes back. Runs off the AWT thread, behind anything already being sent.
+     * Files in the legacy format are read whole, then sent the same way.
      * MUST BE ADMIN!
      */
     public void upload(File file) {
-        try {
-            ObjectInputStream read = new ObjectInputStream(new FileInputStream(file));
-            ArrayList<Drawing> drawings;
+        outbound.execute(() -> {
             try {
-                drawings = (ArrayList<Drawing>) read.readObject();
-            } catch (ClassCastException c) {
+                if (CanvasFile.isIndexed(file)) {
+                    try (CanvasFile.Reader reader = CanvasFile.open(file)) {
+                        remoteWhiteboard.clearCanvas(uid);
+                        for (int i = 0; i < reader.size(); i += _UPLOAD_BATCH) {
+                            remoteWhiteboard.drawAllToCanvas(uid, reader.get(i, Math.min(i + _UPLOAD_BATCH, reader.size())));
+                        }
+                    }
+                } else {
+                    ArrayList<Drawing> drawings = CanvasFile.readLegacy(file);
+                    remoteWhiteboard.clearCanvas(uid);
+                    for (int i = 0; i < drawings.size(); i += _UPLOAD_BATCH) {
+                        remoteWhiteboard.drawAllToCanvas(uid,
+                                new ArrayList<>(drawings.subList(i, Math.min(i + _UPLOAD_BATCH, drawings.size()))));
+                    }
+                }
+            } catch (IOException e) {
                 System.out.println("Saved canvas not readable");
-                return;
             }
-            read.close();
-            remoteWhiteboard.clearCanvas(uid);
-            remoteWhiteboard.drawAllToCanvas(uid, drawings);
-
-        } catch (FileNotFoundException e) {
-
-        } catch (IOException e){
-
-        } catch (ClassNotFoundException e){
-
-        }
+        });
     }
 
     public void removeUser(String kickID) {
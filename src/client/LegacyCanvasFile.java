@@ -0,0 +1,164 @@
+package client;
+
+import drawing.Drawing;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads .canvas files saved before the indexed format: a serialized ArrayList of the drawing classes as they were
+ * then, plain Serializable classes with no serialVersionUID. The drawing classes have since changed their encoding,
+ * so the stream is read into frozen copies of the old classes (below), which are then turned into drawings.
+ * The copies must keep the old classes' fields exactly as they were. They are package-visible so that the
+ * benchmarks can write them too, to measure the old format against the new.
+ * @author Alex Epstein
+ */
+final class LegacyCanvasFile {
+
+    // Old class -> its frozen copy
+    private static final Map<String, Class<?>> _FROZEN = new HashMap<>();
+
+    static {
+        _FROZEN.put("drawing.Drawing", OldDrawing.class);
+        _FROZEN.put("drawing.Line", OldLine.class);
+        _FROZEN.put("drawing.Shape", OldShape.class);
+        _FROZEN.put("drawing.Rectangle", OldRectangle.class);
+        _FROZEN.put("drawing.Circle", OldCircle.class);
+        _FROZEN.put("drawing.Triangle", OldTriangle.class);
+        _FROZEN.put("drawing.FreeLine", OldFreeLine.class);
+        _FROZEN.put("drawing.FreeLine$FreeLinePoint", OldFreeLine.FreeLinePoint.class);
+        _FROZEN.put("drawing.Text", OldText.class);
+    }
+
+    private LegacyCanvasFile() {}
+
+    /**
+     * @param file
+     * @return the drawings saved in the file, in order
+     * @throws IOException
+     */
+    static ArrayList<Drawing> read(File file) throws IOException {
+        try (ObjectInputStream in = new FrozenClassInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            List<?> saved = (List<?>) in.readObject();
+            ArrayList<Drawing> drawings = new ArrayList<>(saved.size());
+            for (Object o : saved) {
+                drawings.add(((OldDrawing) o).toDrawing());
+            }
+            return drawings;
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Saved canvas not readable", e);
+        }
+    }
+
+    /**
+     * Swaps the description of each old drawing class in the stream for that of its frozen copy. The old classes'
+     * serialVersionUIDs were computed by the compiler that built them, so they are not checked; the fields are
+     * matched by the copies instead.
+     */
+    private static class FrozenClassInputStream extends ObjectInputStream {
+
+        FrozenClassInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> frozen = _FROZEN.get(desc.getName());
+            return frozen == null ? desc : ObjectStreamClass.lookup(frozen);
+        }
+    }
+
+    abstract static class OldDrawing implements Serializable {
+        int startx;
+        int starty;
+        int endx;
+        int endy;
+        Color colour;
+        String artist;
+        long timestamp;
+
+        abstract Drawing create();
+
+        Drawing toDrawing() {
+            Drawing d = create();
+            d.startx = startx;
+            d.starty = starty;
+            d.endx = endx;
+            d.endy = endy;
+            return d;
+        }
+    }
+
+    static class OldLine extends OldDrawing {
+        @Override
+        Drawing create() {
+            return new drawing.Line(artist, timestamp, colour);
+        }
+    }
+
+    abstract static class OldShape extends OldDrawing {
+    }
+
+    static class OldRectangle extends OldShape {
+        @Override
+        Drawing create() {
+            return new drawing.Rectangle(artist, timestamp, colour);
+        }
+    }
+
+    static class OldCircle extends OldShape {
+        @Override
+        Drawing create() {
+            return new drawing.Circle(artist, timestamp, colour);
+        }
+    }
+
+    static class OldTriangle extends OldShape {
+        @Override
+        Drawing create() {
+            return new drawing.Triangle(artist, timestamp, colour);
+        }
+    }
+
+    static class OldFreeLine extends OldDrawing {
+        LinkedList<FreeLinePoint> points;
+        int _POINT_SKIP_FACTOR;
+
+        @Override
+        Drawing create() {
+            drawing.FreeLine line = new drawing.FreeLine(artist, timestamp, colour);
+            if (points != null) {
+                for (FreeLinePoint p : points) {
+                    line.addPoint(p.x, p.y);
+                }
+            }
+            return line;
+        }
+
+        // An inner class, as it was, so that it keeps its reference to the line
+        class FreeLinePoint implements Serializable {
+            short x;
+            short y;
+        }
+    }
+
+    static class OldText extends OldDrawing {
+        char[] chars;
+        // Every old Text was written in what is still the default font, so it isn't carried over
+        Font font;
+
+        @Override
+        Drawing create() {
+            drawing.Text text = new drawing.Text(artist, timestamp, colour);
+            text.setCharArray(chars == null ? "" : new String(chars));
+            return text;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package client;
+
+import drawing.Drawing;
+import drawing.QuadTree;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The flattened image of every finished drawing on an unbounded, zoomable board, rendered as square tiles.
+ * Each zoom level has its own grid of tiles, rasterised on demand from a spatial index of the drawings the first
+ * time they come into view, and kept in a least-recently-used cache sized to hold a couple of screens' worth.
+ * So memory is bounded however large the board, and panning or zooming only renders the tiles that come into view.
+ *
+ * A new drawing is added to the index, and drawn straight onto whichever cached tiles it touches; tiles not in
+ * the cache will pick it up from the index when next rendered.
+ *
+ * Zoom level z shows the board at scale 2^z. Tile (tx, ty) of a level covers screen pixels
+ * [tx * _TILE_SIZE, (tx + 1) * _TILE_SIZE) of the board drawn at that scale, before panning.
+ * @author Alex Epstein
+ */
+public class TiledSurface {
+
+    static final int _TILE_SIZE = 128;
+    static final int _MIN_ZOOM = -4;
+    static final int _MAX_ZOOM = 3;
+    // The cache holds this many screens' worth of tiles, so the view and what was just panned away from stay
+    // cached; never fewer than _MIN_TILES (a 128x128 RGB tile is 64KB)
+    private static final int _SCREENS_CACHED = 2;
+    private static final int _MIN_TILES = 64;
+
+    private final Color background;
+    private QuadTree index = new QuadTree();
+    private int maxTiles = _MIN_TILES;
+    private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+            return size() > maxTiles;
+        }
+    };
+
+    public TiledSurface(Color background) {
+        this.background = background;
+    }
+
+    /**
+     * @param zoom
+     * @return screen pixels per board pixel at the zoom level
+     */
+    static double scale(int zoom) {
+        return Math.scalb(1.0, zoom);
+    }
+
+    /**
+     * Adds the drawing to the board, and rasterises it into every cached tile its bounding box touches
+     * @param d
+     * @return the area of the board that changed
+     */
+    public Rectangle draw(Drawing d) {
+        index.insert(d);
+        Rectangle bounds = d.getBounds();
+        if (bounds.isEmpty()) return bounds;
+        for (Tile tile : cachedTiles(bounds)) {
+            tile.draw(d);
+        }
+        return bounds;
+    }
+
+    /**
+     * Adds drawings that are older than some already on the board (e.g. fetched as a region comes into view).
+     * Drawing them on top would layer them wrongly, so the cached tiles they touch are dropped instead, to be
+     * rendered again in order
+     * @param ds
+     * @return the area of the board that changed
+     */
+    public Rectangle load(Collection<Drawing> ds) {
+        Rectangle dirty = null;
+        for (Drawing d : ds) {
+            index.insert(d);
+            Rectangle bounds = d.getBounds();
+            if (bounds.isEmpty()) continue;
+            for (Tile tile : cachedTiles(bounds)) {
+                tiles.remove(key(tile.zoom, tile.tx, tile.ty));
+            }
+            dirty = dirty == null ? bounds : dirty.union(bounds);
+        }
+        return dirty;
+    }
+
+    /**
+     * @param bounds: an area of the board
+     * @return the cached tiles, at every zoom level, that the area touches
+     */
+    private ArrayList<Tile> cachedTiles(Rectangle bounds) {
+        ArrayList<Tile> touched = new ArrayList<>();
+        for (int z = _MIN_ZOOM; z <= _MAX_ZOOM; z++) {
+            double s = scale(z);
+            long tx0 = Math.floorDiv((long) Math.floor(bounds.x * s), _TILE_SIZE);
+            long ty0 = Math.floorDiv((long) Math.floor(bounds.y * s), _TILE_SIZE);
+            long tx1 = Math.floorDiv((long) Math.ceil((bounds.x + bounds.width) * s), _TILE_SIZE);
+            long ty1 = Math.floorDiv((long) Math.ceil((bounds.y + bounds.height) * s), _TILE_SIZE);
+            if ((tx1 - tx0 + 1) * (ty1 - ty0 + 1) <= tiles.size()) {
+                for (long ty = ty0; ty <= ty1; ty++) {
+                    for (long tx = tx0; tx <= tx1; tx++) {
+                        Tile tile = tiles.get(key(z, tx, ty));
+                        if (tile != null) touched.add(tile);
+                    }
+                }
+            } else {
+                // A huge area at a close zoom: cheaper to check the cached tiles than the tile range
+                for (Tile tile : tiles.values()) {
+                    if (tile.zoom == z && tile.tx >= tx0 && tile.tx <= tx1 && tile.ty >= ty0 && tile.ty <= ty1) {
+                        touched.add(tile);
+                    }
+                }
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * Blits the tiles that intersect the clip to the graphics context, rendering any that aren't cached
+     * @param g
+     * @param clip: the area to paint, in screen coordinates
+     * @param zoom
+     * @param panX: the screen x of the board's origin is -panX
+     * @param panY: the screen y of the board's origin is -panY
+     */
+    public void paint(Graphics g, Rectangle clip, int zoom, int panX, int panY) {
+        if (clip == null || clip.isEmpty()) return;
+        long tx0 = Math.floorDiv((long) clip.x + panX, _TILE_SIZE);
+        long ty0 = Math.floorDiv((long) clip.y + panY, _TILE_SIZE);
+        long tx1 = Math.floorDiv((long) clip.x + clip.width - 1 + panX, _TILE_SIZE);
+        long ty1 = Math.floorDiv((long) clip.y + clip.height - 1 + panY, _TILE_SIZE);
+        for (long ty = ty0; ty <= ty1; ty++) {
+            for (long tx = tx0; tx <= tx1; tx++) {
+                g.drawImage(tile(zoom, tx, ty).image, (int) (tx * _TILE_SIZE - panX), (int) (ty * _TILE_SIZE - panY), null);
+            }
+        }
+    }
+
+    /**
+     * Sizes the tile cache for a view of the given size: a view can straddle one more tile than fits across it
+     * each way
+     * @param width: in screen pixels
+     * @param height
+     */
+    public void setViewSize(int width, int height) {
+        long across = (width + _TILE_SIZE - 1) / _TILE_SIZE + 1;
+        long down = (height + _TILE_SIZE - 1) / _TILE_SIZE + 1;
+        maxTiles = (int) Math.max(_MIN_TILES, Math.min(Integer.MAX_VALUE, _SCREENS_CACHED * across * down));
+        // Shrinking: drop the least recently used tiles now rather than one per render
+        for (Iterator<Long> it = tiles.keySet().iterator(); tiles.size() > maxTiles && it.hasNext(); ) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Wipes the board
+     */
+    public void clear() {
+        index = new QuadTree();
+        tiles.clear();
+    }
+
+    /**
+     * @return how many tiles are currently held in memory
+     */
+    public int getResidentTiles() {
+        return tiles.size();
+    }
+
+    private Tile tile(int zoom, long tx, long ty) {
+        long key = key(zoom, tx, ty);
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = new Tile(zoom, tx, ty);
+            tile.render();
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    private static long key(int zoom, long tx, long ty) {
+        return ((long) (zoom - _MIN_ZOOM) << 56) | ((tx & 0xFFFFFFFL) << 28) | (ty & 0xFFFFFFFL);
+    }
+
+    /**
+     * One tile of one zoom level
+     */
+    private class Tile {
+        final int zoom;
+        final long tx, ty;
+        final BufferedImage image = new BufferedImage(_TILE_SIZE, _TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+
+        Tile(int zoom, long tx, long ty) {
+            this.zoom = zoom;
+            this.tx = tx;
+            this.ty = ty;
+        }
+
+        /**
+         * Rasterises every drawing that touches the tile, in order
+         */
+        void render() {
+            double s = scale(zoom);
+            int x = (int) Math.floor(tx * _TILE_SIZE / s);
+            int y = (int) Math.floor(ty * _TILE_SIZE / s);
+            int size = (int) Math.ceil(_TILE_SIZE / s) + 1;
+            ArrayList<Drawing> hits = new ArrayList<>();
+            index.query(new Rectangle(x, y, size, size), hits);
+            hits.sort(Comparator.comparingLong(d -> d.seq));
+
+            Graphics2D g = image.createGraphics();
+            g.setColor(background);
+            g.fillRect(0, 0, _TILE_SIZE, _TILE_SIZE);
+            toBoard(g);
+            for (Drawing d : hits) {
+                d.drawToGraphics(g, s);
+            }
+            g.dispose();
+        }
+
+        void draw(Drawing d) {
+            Graphics2D g = image.createGraphics();
+            toBoard(g);
+            d.drawToGraphics(g, scale(zoom));
+            g.dispose();
+        }
+
+        /**
+         * Transforms the graphics context so that it draws in board coordinates
+         */
+        private void toBoard(Graphics2D g) {
+            double s = scale(zoom);
+            g.translate(-tx * _TILE_SIZE, -ty * _TILE_SIZE);
+            g.scale(s, s);
+        }
+    }
+}
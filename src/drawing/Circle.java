@@ -13,6 +13,9 @@ public class Circle extends Shape {
         super(artist, timestamp, color);
     }
 
+    public Circle() {
+    }
+
     @Override
     public void drawToGraphics(Graphics g) {
         g.setColor(this.colour);
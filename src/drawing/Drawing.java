@@ -1,13 +1,22 @@
 package drawing;
 
 import java.awt.*;
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 /**
  * Parent class of all drawing types, subdivided into free line, text, shape.
+ * Drawings cross the network with a compact hand-written encoding (see writeExternal) rather than default
+ * serialization: coordinates as varints, the colour as a packed int, and interned artist names.
+ * Subclasses extend the encoding by calling super first, and must keep a public no-arg constructor.
  * @author Alex Epstein
  */
-public abstract class Drawing implements Serializable {
+public abstract class Drawing implements Externalizable {
+
+    // Written ahead of every drawing, so that a later change to the encoding can be told apart from this one
+    private static final byte _WIRE_VERSION = 1;
 
     public int startx;
     public int starty;
@@ -16,17 +25,76 @@ public abstract class Drawing implements Serializable {
     public Color colour;
     String artist;
     public long timestamp;
+    // Assigned by the artist's client, unique among that artist's drawings; ties a streamed stroke to its final form
+    public long localId;
+    // Assigned by the server when the drawing is added to the canvas; increases for the life of the server
+    public long seq;
 
     /**
      * Create a new drawing with the provided artist's signature
      * @param artist
      */
     public Drawing(String artist, long timestamp, Color color) {
-        this.artist = artist;
+        this.artist = WireFormat.internArtist(artist);
         this.timestamp = timestamp;
         this.colour = color;
     }
 
+    /**
+     * Used only when decoding a drawing
+     */
+    public Drawing() {
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(_WIRE_VERSION);
+        WireFormat.writeVarInt(out, startx);
+        WireFormat.writeVarInt(out, starty);
+        WireFormat.writeVarInt(out, endx);
+        WireFormat.writeVarInt(out, endy);
+        out.writeBoolean(colour != null);
+        if (colour != null) {
+            out.writeInt(colour.getRGB());
+        }
+        out.writeObject(artist);
+        WireFormat.writeVarLong(out, timestamp);
+        WireFormat.writeVarLong(out, localId);
+        WireFormat.writeVarLong(out, seq);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        byte version = in.readByte();
+        if (version != _WIRE_VERSION) {
+            throw new IOException("Unsupported drawing encoding version " + version);
+        }
+        startx = WireFormat.readVarInt(in);
+        starty = WireFormat.readVarInt(in);
+        endx = WireFormat.readVarInt(in);
+        endy = WireFormat.readVarInt(in);
+        colour = in.readBoolean() ? new Color(in.readInt(), true) : null;
+        artist = WireFormat.internArtist((String) in.readObject());
+        timestamp = WireFormat.readVarLong(in);
+        localId = WireFormat.readVarLong(in);
+        seq = WireFormat.readVarLong(in);
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    /**
+     * The area this drawing may touch when drawn, used to redraw only what has changed.
+     * By default, the box spanned by the start and end points (plus a pixel for the pen).
+     * @return
+     */
+    public java.awt.Rectangle getBounds() {
+        int x = Math.min(startx, endx);
+        int y = Math.min(starty, endy);
+        return new java.awt.Rectangle(x - 1, y - 1, Math.abs(endx - startx) + 3, Math.abs(endy - starty) + 3);
+    }
+
     /**
      * Draws the selected Drawing to the graphics context.
      * @param g: the graphics context of the canvas
@@ -34,6 +102,16 @@ public abstract class Drawing implements Serializable {
     public void drawToGraphics(Graphics g) {
     };
 
+    /**
+     * Draws the drawing as seen at the given zoom, where it may be drawn in less detail than at full size.
+     * By default, the same at every zoom.
+     * @param g: the graphics context, already scaled
+     * @param scale: screen pixels per canvas pixel
+     */
+    public void drawToGraphics(Graphics g, double scale) {
+        drawToGraphics(g);
+    }
+
 
 
 }
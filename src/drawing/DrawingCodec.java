@@ -0,0 +1,181 @@
+package drawing;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes and reads single drawings in their compact encoding (see Drawing.writeExternal) without the per-stream
+ * headers and class descriptors of Java serialization, for storing many drawings as separate records.
+ * A record is a one-byte type code followed by the drawing's own encoding. The only objects a drawing may write
+ * are Strings.
+ * @author Alex Epstein
+ */
+public final class DrawingCodec {
+
+    // Type codes are stored in files: append new ones, never renumber
+    private static final Class<?>[] _TYPES = {
+            null, Line.class, Rectangle.class, Circle.class, Triangle.class, FreeLine.class, Text.class, Picture.class
+    };
+
+    private DrawingCodec() {}
+
+    /**
+     * Writes the drawing's type code and encoding
+     * @param drawing
+     * @param out
+     * @throws IOException
+     */
+    public static void write(Drawing drawing, DataOutput out) throws IOException {
+        out.writeByte(typeOf(drawing));
+        drawing.writeExternal(new Output(out));
+    }
+
+    /**
+     * Reads one drawing from the buffer's position, leaving the position just after it
+     * @param buffer
+     * @return
+     * @throws IOException
+     */
+    public static Drawing read(ByteBuffer buffer) throws IOException {
+        try {
+            int type = buffer.get() & 0xFF;
+            if (type == 0 || type >= _TYPES.length) {
+                throw new IOException("Unknown drawing type " + type);
+            }
+            Drawing drawing = (Drawing) _TYPES[type].getConstructor().newInstance();
+            drawing.readExternal(new Input(buffer));
+            return drawing;
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Truncated drawing record");
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Couldn't create drawing", e);
+        }
+    }
+
+    private static int typeOf(Drawing drawing) throws IOException {
+        for (int i = 1; i < _TYPES.length; i++) {
+            if (_TYPES[i] == drawing.getClass()) return i;
+        }
+        throw new NotSerializableException(drawing.getClass().getName());
+    }
+
+    /**
+     * ObjectOutput over a plain DataOutput, accepting only Strings (or null) as objects
+     */
+    private static class Output implements ObjectOutput {
+        private final DataOutput out;
+
+        Output(DataOutput out) {
+            this.out = out;
+        }
+
+        @Override
+        public void writeObject(Object obj) throws IOException {
+            if (obj != null && !(obj instanceof String)) {
+                throw new NotSerializableException(obj.getClass().getName());
+            }
+            out.writeBoolean(obj != null);
+            if (obj != null) out.writeUTF((String) obj);
+        }
+
+        @Override public void write(int b) throws IOException { out.write(b); }
+        @Override public void write(byte[] b) throws IOException { out.write(b); }
+        @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+        @Override public void writeBoolean(boolean v) throws IOException { out.writeBoolean(v); }
+        @Override public void writeByte(int v) throws IOException { out.writeByte(v); }
+        @Override public void writeShort(int v) throws IOException { out.writeShort(v); }
+        @Override public void writeChar(int v) throws IOException { out.writeChar(v); }
+        @Override public void writeInt(int v) throws IOException { out.writeInt(v); }
+        @Override public void writeLong(long v) throws IOException { out.writeLong(v); }
+        @Override public void writeFloat(float v) throws IOException { out.writeFloat(v); }
+        @Override public void writeDouble(double v) throws IOException { out.writeDouble(v); }
+        @Override public void writeBytes(String s) throws IOException { out.writeBytes(s); }
+        @Override public void writeChars(String s) throws IOException { out.writeChars(s); }
+        @Override public void writeUTF(String s) throws IOException { out.writeUTF(s); }
+        @Override public void flush() {}
+        @Override public void close() {}
+    }
+
+    /**
+     * ObjectInput reading straight from a ByteBuffer (e.g. a mapped file), the counterpart of Output
+     */
+    private static class Input implements ObjectInput {
+        private final ByteBuffer in;
+
+        Input(ByteBuffer in) {
+            this.in = in;
+        }
+
+        @Override
+        public Object readObject() throws IOException {
+            return in.get() != 0 ? readUTF() : null;
+        }
+
+        @Override
+        public int read() {
+            return in.hasRemaining() ? in.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b) {
+            return read(b, 0, b.length);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!in.hasRemaining()) return -1;
+            int n = Math.min(len, in.remaining());
+            in.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int k = (int) Math.max(0, Math.min(n, in.remaining()));
+            in.position(in.position() + k);
+            return k;
+        }
+
+        @Override
+        public int skipBytes(int n) {
+            return (int) skip(n);
+        }
+
+        @Override public int available() { return in.remaining(); }
+        @Override public void readFully(byte[] b) { in.get(b); }
+        @Override public void readFully(byte[] b, int off, int len) { in.get(b, off, len); }
+        @Override public boolean readBoolean() { return in.get() != 0; }
+        @Override public byte readByte() { return in.get(); }
+        @Override public int readUnsignedByte() { return in.get() & 0xFF; }
+        @Override public short readShort() { return in.getShort(); }
+        @Override public int readUnsignedShort() { return in.getShort() & 0xFFFF; }
+        @Override public char readChar() { return in.getChar(); }
+        @Override public int readInt() { return in.getInt(); }
+        @Override public long readLong() { return in.getLong(); }
+        @Override public float readFloat() { return in.getFloat(); }
+        @Override public double readDouble() { return in.getDouble(); }
+        @Override public String readUTF() throws IOException { return DataInputStream.readUTF(this); }
+        @Override public void close() {}
+
+        /**
+         * Reads bytes as Latin-1 characters up to the end of a line, like DataInputStream.readLine
+         * @return the line without its terminator, or null at the end of the buffer
+         */
+        @Override
+        public String readLine() {
+            if (!in.hasRemaining()) return null;
+            StringBuilder line = new StringBuilder();
+            while (in.hasRemaining()) {
+                char c = (char) (in.get() & 0xFF);
+                if (c == '\n') break;
+                if (c == '\r') {
+                    if (in.hasRemaining() && in.get(in.position()) == '\n') in.get();
+                    break;
+                }
+                line.append(c);
+            }
+            return line.toString();
+        }
+    }
+}
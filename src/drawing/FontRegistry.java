@@ -0,0 +1,70 @@
+package drawing;
+
+import java.awt.Font;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The fonts Text may be drawn in, shared between every Text and numbered so that a Text sends a one-byte id
+ * rather than its font's name, style and size. Only these fonts can be written or read.
+ * @author Alex Epstein
+ */
+public final class FontRegistry {
+
+    // Ids are stored in files: append new fonts, never renumber. 0 is not a font
+    private static final Font[] _FONTS = {
+            null,
+            new Font("Helvetica", Font.PLAIN, 18),
+            new Font("Helvetica", Font.BOLD, 18),
+            new Font("Helvetica", Font.ITALIC, 18),
+            new Font("Helvetica", Font.PLAIN, 12),
+            new Font("Helvetica", Font.PLAIN, 24),
+            new Font("Helvetica", Font.PLAIN, 36),
+            new Font("Monospaced", Font.PLAIN, 18),
+            new Font("Serif", Font.PLAIN, 18),
+    };
+
+    private static final Map<Font, Integer> ids = new HashMap<>();
+
+    static {
+        for (int i = 1; i < _FONTS.length; i++) {
+            ids.put(_FONTS[i], i);
+        }
+    }
+
+    private FontRegistry() {}
+
+    /**
+     * @return the font new text is written in
+     */
+    public static Font getDefault() {
+        return _FONTS[1];
+    }
+
+    /**
+     * Writes the font's id
+     * @param out
+     * @param font
+     * @throws IOException
+     * @throws NotSerializableException if the font isn't one of the registry's
+     */
+    public static void write(DataOutput out, Font font) throws IOException {
+        Integer id = ids.get(font);
+        if (id == null) {
+            throw new NotSerializableException("Font " + font + " isn't in the registry");
+        }
+        WireFormat.writeVarInt(out, id);
+    }
+
+    public static Font read(DataInput in) throws IOException {
+        int id = WireFormat.readVarInt(in);
+        if (id < 1 || id >= _FONTS.length) {
+            throw new IOException("Unknown font id " + id);
+        }
+        return _FONTS[id];
+    }
+}
@@ -1,79 +1,251 @@
 package drawing;
 
 import java.awt.*;
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
 
 /**
- * Free line stored as a series of points
+ * Free line stored as a series of points, packed into a growable short array as x0, y0, x1, y1, ...
+ * (4 bytes per point, no per-point objects)
  * @author Alex Epstein
  */
 public class FreeLine extends Drawing {
 
-    public LinkedList<FreeLinePoint> points;
-    public int _POINT_SKIP_FACTOR = 1;
+    private static final int _INITIAL_CAPACITY = 64;
+    // The most points a line read off the wire may have
+    private static final int _MAX_POINTS = 1 << 20;
+
+    private short[] points;
+    private int size;
+    // The line simplified for the last zoom it was drawn at below full size
+    private transient Lod lod;
 
     public FreeLine(String artist, long timestamp, Color color) {
         super(artist, timestamp, color);
-        points = new LinkedList<FreeLinePoint>();
+        points = new short[2 * _INITIAL_CAPACITY];
+    }
+
+    public FreeLine() {
+        points = new short[2 * _INITIAL_CAPACITY];
+    }
+
+    /**
+     * Points are written as a count, the first point, then the (usually tiny) difference between each point
+     * and the one before it, all as varints
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        WireFormat.writeVarInt(out, size);
+        int lastx = 0;
+        int lasty = 0;
+        for (int i = 0; i < size; i++) {
+            WireFormat.writeVarInt(out, points[2*i] - lastx);
+            WireFormat.writeVarInt(out, points[2*i + 1] - lasty);
+            lastx = points[2*i];
+            lasty = points[2*i + 1];
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        super.readExternal(in);
+        int n = WireFormat.readVarInt(in);
+        if (n < 0 || n > _MAX_POINTS) throw new InvalidObjectException("Bad point count " + n);
+        // The count is only a claim: the array grows with the points actually read, so a count larger than the
+        // record runs out of input rather than allocating for points that were never sent
+        points = new short[2 * Math.max(1, Math.min(n, _INITIAL_CAPACITY))];
+        size = 0;
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < n; i++) {
+            x += WireFormat.readVarInt(in);
+            y += WireFormat.readVarInt(in);
+            addPoint((short) x, (short) y);
+        }
     }
 
     public void addPoint(short x, short y) {
-        points.add(new FreeLinePoint(x, y));
+        if (2 * size == points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[2*size] = x;
+        points[2*size + 1] = y;
+        size++;
+    }
+
+    /**
+     * @return the number of points in the line
+     */
+    public int size() {
+        return size;
+    }
+
+    public short getX(int i) {
+        return points[2*i];
+    }
+
+    public short getY(int i) {
+        return points[2*i + 1];
+    }
+
+    /**
+     * Replaces the points of the line
+     * @param xy: points packed as x0, y0, x1, y1, ...
+     * @param n: the number of points
+     */
+    public void setPoints(short[] xy, int n) {
+        points = Arrays.copyOf(xy, 2 * Math.max(n, 1));
+        size = n;
+    }
+
+    /**
+     * Copies the points from the given index onwards into a new line with the same artist, colour and id.
+     * Used to stream a stroke while it is still being drawn.
+     * @param from
+     * @return
+     */
+    public FreeLine tail(int from) {
+        FreeLine tail = new FreeLine(artist, timestamp, colour);
+        tail.localId = localId;
+        from = Math.max(0, Math.min(from, size));
+        tail.setPoints(Arrays.copyOfRange(points, 2 * from, 2 * size), size - from);
+        return tail;
     }
 
     /**
-     * A point that simply consists of two shorts
+     * Appends all the points of another line to this one
+     * @param other
      */
-    public class FreeLinePoint implements Serializable {
-        short x;
-        short y;
-        public FreeLinePoint(short x, short y) {
-            this.x = x;
-            this.y = y;
+    public void append(FreeLine other) {
+        for (int i = 0; i < other.size; i++) {
+            addPoint(other.points[2*i], other.points[2*i + 1]);
         }
     }
 
     /**
-     * Draw the free line to the specified graphics context. Optionally, we can allow the paint to skip n points
-     * for each point included. However, the distance-based optimisation method gives better accuracy.
+     * @return a copy of the points, packed as x0, y0, x1, y1, ...
+     */
+    public short[] getPoints() {
+        return Arrays.copyOf(points, 2 * size);
+    }
+
+    /**
+     * The box around every point of the line (plus a pixel for the pen)
+     * @return
+     */
+    @Override
+    public java.awt.Rectangle getBounds() {
+        return getBounds(0);
+    }
+
+    /**
+     * The box around the points from the given index onwards, e.g. the part of a line added since it was last drawn
+     * @param from
+     * @return
+     */
+    public java.awt.Rectangle getBounds(int from) {
+        if (size == 0) return new java.awt.Rectangle();
+        from = Math.max(0, Math.min(from, size - 1));
+        int minx = points[2*from], maxx = minx;
+        int miny = points[2*from + 1], maxy = miny;
+        for (int i = from + 1; i < size; i++) {
+            minx = Math.min(minx, points[2*i]);
+            maxx = Math.max(maxx, points[2*i]);
+            miny = Math.min(miny, points[2*i + 1]);
+            maxy = Math.max(maxy, points[2*i + 1]);
+        }
+        return new java.awt.Rectangle(minx - 1, miny - 1, maxx - minx + 3, maxy - miny + 3);
+    }
+
+    /**
+     * Draw the free line to the specified graphics context as a single polyline, in linear time.
      * @param g: the graphics context of the canvas
      */
     @Override
     public void drawToGraphics(Graphics g) {
         g.setColor(this.colour);
-        int pointsSkipFactor = _POINT_SKIP_FACTOR;
-        for (int i = pointsSkipFactor; i < points.size(); i += pointsSkipFactor) {
-            // FIXME: Refine this to an arc ?
-            g.drawLine(points.get(i-pointsSkipFactor).x, points.get(i-pointsSkipFactor).y, points.get(i).x, points.get(i).y);
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = points[2*i];
+            ys[i] = points[2*i + 1];
         }
+        // FIXME: Refine this to an arc ?
+        g.drawPolyline(xs, ys, size);
     }
 
     /**
-     * Unique method for FreeLine which deletes all points that are not sufficiently far from the previous point,
-     * saving space (and rendering time) depending on the optimisation factor used
-     * A DCT or FFT would be optimal, however, I don't care.
-     * @param optimisationFactor: the square of the Euclidean pixel distance desired between any two points
+     * Level of detail: zoomed out, points closer together than a screen pixel can't be told apart, so the line
+     * is drawn simplified to a tolerance of half a screen pixel (and as a dot, if it is smaller than a pixel).
+     * The simplified points are kept for the next time the line is drawn at the same zoom.
+     * @param g: the graphics context, already scaled
+     * @param scale: screen pixels per canvas pixel
      */
-    public void optimise(int optimisationFactor) {
-        if (points.isEmpty()) return;
-        LinkedList<FreeLinePoint> newPoints = new LinkedList<FreeLinePoint>();
-
-        // Always include the first point
-        newPoints.push(points.pop());
-
-        while (!points.isEmpty()) {
-            FreeLinePoint p = points.pop();
-            FreeLinePoint q = newPoints.peek();
-
-            // Include every subsequent point P[i] iff the last
-            // point added is greater than the optimisation distance away
-            if (Math.abs(p.x - q.x) + Math.abs(p.y - q.y) >= optimisationFactor) {
-                newPoints.push(p);
-            }
+    @Override
+    public void drawToGraphics(Graphics g, double scale) {
+        if (scale >= 1 || size <= 2) {
+            drawToGraphics(g);
+            return;
         }
+        g.setColor(this.colour);
+        java.awt.Rectangle b = getBounds();
+        if (b.width * scale < 1 && b.height * scale < 1) {
+            g.drawLine(points[0], points[1], points[0], points[1]);
+            return;
+        }
+        double tolerance = 0.5 / scale;
+        Lod l = lod;
+        if (l == null || l.tolerance != tolerance || l.source != points || l.sourceSize != size) {
+            short[] xy = Arrays.copyOf(points, 2 * size);
+            l = new Lod(points, size, tolerance, xy, StrokeSimplifier.simplify(xy, size, tolerance, false));
+            lod = l;
+        }
+        int[] xs = new int[l.size];
+        int[] ys = new int[l.size];
+        for (int i = 0; i < l.size; i++) {
+            xs[i] = l.points[2*i];
+            ys[i] = l.points[2*i + 1];
+        }
+        g.drawPolyline(xs, ys, l.size);
+    }
+
+    private static class Lod {
+        // What it was simplified from
+        final short[] source;
+        final int sourceSize;
+        final double tolerance;
+        final short[] points;
+        final int size;
 
-        points = newPoints;
+        Lod(short[] source, int sourceSize, double tolerance, short[] points, int size) {
+            this.source = source;
+            this.sourceSize = sourceSize;
+            this.tolerance = tolerance;
+            this.points = points;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Unique method for FreeLine which deletes every point that can be dropped without the line moving more than
+     * the tolerance, saving space (and rendering time). Point order is preserved.
+     * @see StrokeSimplifier
+     * @param tolerance: the greatest distance, in pixels, that the simplified line may stray from the original
+     * @param visvalingam: also apply Visvalingam-Whyatt simplification after Douglas-Peucker
+     */
+    public void optimise(double tolerance, boolean visvalingam) {
+        size = StrokeSimplifier.simplify(points, size, tolerance, visvalingam);
+    }
+
+    /**
+     * Douglas-Peucker simplification only
+     * @param tolerance: the greatest distance, in pixels, that the simplified line may stray from the original
+     */
+    public void optimise(double tolerance) {
+        optimise(tolerance, false);
     }
 }
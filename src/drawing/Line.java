@@ -12,6 +12,9 @@ public class Line extends Drawing {
         super(artist, timestamp, color);
     }
 
+    public Line() {
+    }
+
     @Override
     public void drawToGraphics(Graphics g) {
         g.setColor(this.colour);
@@ -0,0 +1,83 @@
+package drawing;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.UncheckedIOException;
+
+/**
+ * A ready-rendered image placed on the board, carried as PNG bytes and decoded the first time it is drawn.
+ * The server sends its raster checkpoint of the canvas to joining clients as pictures, in place of the many
+ * drawings they were rendered from. The image's top-left corner is (startx, starty), and its bottom-right
+ * (endx, endy).
+ * @author Alex Epstein
+ */
+public class Picture extends Drawing {
+
+    // Larger than any PNG of a raster checkpoint tile, even one that doesn't compress at all
+    private static final int _MAX_BYTES = 4 << 20;
+
+    private byte[] png;
+    private transient BufferedImage image;
+
+    public Picture(String artist, long timestamp, byte[] png, int x, int y, int width, int height) {
+        super(artist, timestamp, null);
+        this.png = png;
+        this.startx = x;
+        this.starty = y;
+        this.endx = x + width;
+        this.endy = y + height;
+    }
+
+    public Picture() {
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        WireFormat.writeVarInt(out, png.length);
+        out.write(png);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        super.readExternal(in);
+        int n = WireFormat.readVarInt(in);
+        if (n < 0 || n > _MAX_BYTES) throw new InvalidObjectException("Bad picture size " + n);
+        png = new byte[n];
+        in.readFully(png);
+    }
+
+    /**
+     * Exactly the area the image covers
+     * @return
+     */
+    @Override
+    public java.awt.Rectangle getBounds() {
+        return new java.awt.Rectangle(startx, starty, endx - startx, endy - starty);
+    }
+
+    @Override
+    public void drawToGraphics(Graphics g) {
+        g.drawImage(getImage(), startx, starty, endx - startx, endy - starty, null);
+    }
+
+    private BufferedImage getImage() {
+        BufferedImage i = image;
+        if (i == null) {
+            try {
+                i = ImageIO.read(new ByteArrayInputStream(png));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (i == null) throw new UncheckedIOException(new IOException("Picture is not a readable image"));
+            image = i;
+        }
+        return i;
+    }
+}
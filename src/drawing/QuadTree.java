@@ -0,0 +1,134 @@
+package drawing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spatial index of drawings by bounding box, for finding everything that touches an area without scanning the
+ * whole canvas. Each node covers a square and splits into four once it holds too many drawings; a drawing lives
+ * in the smallest node that wholly contains its box. Drawings outside the root square stay in the root, so any
+ * coordinates work, but only those within it are indexed finely.
+ *
+ * Used by the server's drawing log for region queries, and by the client to find what to draw on each tile.
+ * Not thread-safe: callers must guard it.
+ * @author Alex Epstein
+ */
+public class QuadTree {
+
+    // Covers every coordinate a FreeLine can hold
+    private static final int _ROOT_MIN = Short.MIN_VALUE;
+    private static final int _ROOT_SIZE = 1 << 16;
+    private static final int _NODE_CAPACITY = 16;
+    private static final int _MIN_NODE_SIZE = 64;
+
+    private final Node root = new Node(_ROOT_MIN, _ROOT_MIN, _ROOT_SIZE);
+    private int size = 0;
+
+    /**
+     * @param drawing
+     */
+    public void insert(Drawing drawing) {
+        root.insert(new Entry(drawing, drawing.getBounds()));
+        size++;
+    }
+
+    /**
+     * Finds every drawing whose bounding box intersects the area
+     * @param area
+     * @param hits: where to add them (in no particular order)
+     */
+    public void query(java.awt.Rectangle area, List<Drawing> hits) {
+        root.query(area, hits);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static class Entry {
+        final Drawing drawing;
+        final int x0, y0, x1, y1;
+
+        Entry(Drawing drawing, java.awt.Rectangle b) {
+            this.drawing = drawing;
+            this.x0 = b.x;
+            this.y0 = b.y;
+            this.x1 = b.x + b.width;
+            this.y1 = b.y + b.height;
+        }
+
+        boolean intersects(java.awt.Rectangle r) {
+            return x0 < r.x + r.width && r.x < x1 && y0 < r.y + r.height && r.y < y1;
+        }
+    }
+
+    private static class Node {
+        final int x, y, size;
+        final ArrayList<Entry> entries = new ArrayList<>();
+        Node[] children;
+
+        Node(int x, int y, int size) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        void insert(Entry e) {
+            if (children != null) {
+                Node child = childContaining(e);
+                if (child != null) {
+                    child.insert(e);
+                    return;
+                }
+            }
+            entries.add(e);
+            if (children == null && entries.size() > _NODE_CAPACITY && size / 2 >= _MIN_NODE_SIZE) {
+                split();
+            }
+        }
+
+        private void split() {
+            int half = size / 2;
+            children = new Node[] {
+                    new Node(x, y, half), new Node(x + half, y, half),
+                    new Node(x, y + half, half), new Node(x + half, y + half, half)
+            };
+            ArrayList<Entry> old = new ArrayList<>(entries);
+            entries.clear();
+            for (Entry e : old) {
+                insert(e);
+            }
+        }
+
+        /**
+         * The child wholly containing the entry's box, or null if it straddles them (or lies outside this node)
+         */
+        private Node childContaining(Entry e) {
+            int half = size / 2;
+            int mx = x + half;
+            int my = y + half;
+            int col, row;
+            if (e.x0 >= x && e.x1 <= mx) col = 0;
+            else if (e.x0 >= mx && e.x1 <= x + size) col = 1;
+            else return null;
+            if (e.y0 >= y && e.y1 <= my) row = 0;
+            else if (e.y0 >= my && e.y1 <= y + size) row = 1;
+            else return null;
+            return children[row * 2 + col];
+        }
+
+        void query(java.awt.Rectangle area, List<Drawing> hits) {
+            for (Entry e : entries) {
+                if (e.intersects(area)) hits.add(e.drawing);
+            }
+            if (children != null) {
+                for (Node child : children) {
+                    if (child.x < area.x + area.width && area.x < child.x + child.size
+                            && child.y < area.y + area.height && area.y < child.y + child.size) {
+                        child.query(area, hits);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -13,6 +13,9 @@ public class Rectangle extends Shape {
         super(artist, timestamp, color);
     }
 
+    public Rectangle() {
+    }
+
     @Override
     public void drawToGraphics(Graphics g) {
         g.setColor(this.colour); g.fillRect(getX(), getY(), getWidth(), getHeight());
@@ -12,6 +12,9 @@ public abstract class Shape extends Drawing {
         super(artist, timestamp, color);
     }
 
+    public Shape() {
+    }
+
     // Methods for getting orientation-independent coordinates for drawing
 
     public int getX() {
@@ -0,0 +1,180 @@
+package drawing;
+
+import java.util.PriorityQueue;
+
+/**
+ * Polyline simplification for free lines, working in place on points packed as x0, y0, x1, y1, ...
+ * The pipeline drops repeated points, then applies Ramer-Douglas-Peucker (keep every point that lies further than
+ * the tolerance from the simplified line), then optionally Visvalingam-Whyatt (repeatedly drop the point that
+ * spans the smallest triangle with its neighbours). Point order, and the first and last points, are always kept.
+ * @author Alex Epstein
+ */
+public final class StrokeSimplifier {
+
+    private StrokeSimplifier() {}
+
+    /**
+     * Runs the full pipeline
+     * @param xy: packed points, compacted in place
+     * @param n: the number of points
+     * @param tolerance: the greatest distance (in pixels) a dropped point may lie from the simplified line
+     * @param visvalingam: also apply Visvalingam-Whyatt, with an area threshold of tolerance squared
+     * @return the number of points kept, now at the front of xy
+     */
+    public static int simplify(short[] xy, int n, double tolerance, boolean visvalingam) {
+        n = dropRepeats(xy, n);
+        n = douglasPeucker(xy, n, tolerance);
+        if (visvalingam) {
+            n = visvalingamWhyatt(xy, n, tolerance * tolerance);
+        }
+        return n;
+    }
+
+    /**
+     * Drops points identical to the point before them
+     * @return the number of points kept
+     */
+    public static int dropRepeats(short[] xy, int n) {
+        if (n < 2) return n;
+        int kept = 1;
+        for (int i = 1; i < n; i++) {
+            if (xy[2*i] != xy[2*(kept-1)] || xy[2*i + 1] != xy[2*(kept-1) + 1]) {
+                xy[2*kept] = xy[2*i];
+                xy[2*kept + 1] = xy[2*i + 1];
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Ramer-Douglas-Peucker, iteratively (an explicit stack of spans, so long strokes can't overflow the call stack)
+     * @return the number of points kept
+     */
+    public static int douglasPeucker(short[] xy, int n, double tolerance) {
+        if (n < 3) return n;
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+
+        double tolSq = tolerance * tolerance;
+        int[] stack = new int[2 * n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+
+            int furthest = -1;
+            double maxDistSq = tolSq;
+            for (int i = first + 1; i < last; i++) {
+                double distSq = segmentDistSq(xy, i, first, last);
+                if (distSq > maxDistSq) {
+                    maxDistSq = distSq;
+                    furthest = i;
+                }
+            }
+
+            if (furthest != -1) {
+                keep[furthest] = true;
+                stack[top++] = first;
+                stack[top++] = furthest;
+                stack[top++] = furthest;
+                stack[top++] = last;
+            }
+        }
+
+        return compact(xy, n, keep);
+    }
+
+    /**
+     * Visvalingam-Whyatt: repeatedly removes the point whose triangle with its current neighbours has the smallest
+     * area, until every remaining point's area is at least minArea
+     * @return the number of points kept
+     */
+    public static int visvalingamWhyatt(short[] xy, int n, double minArea) {
+        if (n < 3) return n;
+        int[] prev = new int[n];
+        int[] next = new int[n];
+        double[] area = new double[n];
+        boolean[] keep = new boolean[n];
+        PriorityQueue<double[]> heap = new PriorityQueue<>(n, (a, b) -> Double.compare(a[0], b[0]));
+
+        for (int i = 0; i < n; i++) {
+            prev[i] = i - 1;
+            next[i] = i + 1;
+            keep[i] = true;
+        }
+        for (int i = 1; i < n - 1; i++) {
+            area[i] = triangleArea(xy, i - 1, i, i + 1);
+            heap.add(new double[]{area[i], i});
+        }
+
+        while (!heap.isEmpty()) {
+            double[] entry = heap.poll();
+            int i = (int) entry[1];
+            // Skip entries made stale by a neighbour's removal
+            if (!keep[i] || entry[0] != area[i]) continue;
+            if (area[i] >= minArea) break;
+
+            keep[i] = false;
+            int p = prev[i], q = next[i];
+            next[p] = q;
+            prev[q] = p;
+            if (prev[p] >= 0) {
+                area[p] = triangleArea(xy, prev[p], p, q);
+                heap.add(new double[]{area[p], p});
+            }
+            if (next[q] < n) {
+                area[q] = triangleArea(xy, p, q, next[q]);
+                heap.add(new double[]{area[q], q});
+            }
+        }
+
+        return compact(xy, n, keep);
+    }
+
+    /**
+     * The area of the triangle a, b, c: how much dropping b changes the line. Where the line doubles back at b
+     * (b lies beyond a or c along the segment between them, or a and c meet) the triangle can be flat however far
+     * b reaches, so the squared distance from b to the segment is used instead
+     */
+    private static double triangleArea(short[] xy, int a, int b, int c) {
+        double abx = xy[2*b] - xy[2*a], aby = xy[2*b + 1] - xy[2*a + 1];
+        double acx = xy[2*c] - xy[2*a], acy = xy[2*c + 1] - xy[2*a + 1];
+        double along = abx * acx + aby * acy;
+        double lenSq = acx * acx + acy * acy;
+        if (lenSq == 0 || along < 0 || along > lenSq) {
+            return segmentDistSq(xy, b, a, c);
+        }
+        return Math.abs(abx * acy - aby * acx) / 2;
+    }
+
+    /**
+     * The squared distance from point p to the segment from a to b (not the infinite line through them, which
+     * would let a point where the line doubles back look as if it lay on the line)
+     */
+    private static double segmentDistSq(short[] xy, int p, int a, int b) {
+        double ax = xy[2*a], ay = xy[2*a + 1];
+        double dx = xy[2*b] - ax, dy = xy[2*b + 1] - ay;
+        double px = xy[2*p] - ax, py = xy[2*p + 1] - ay;
+        double lenSq = dx * dx + dy * dy;
+        double t = lenSq == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / lenSq));
+        double ex = px - t * dx, ey = py - t * dy;
+        return ex * ex + ey * ey;
+    }
+
+    private static int compact(short[] xy, int n, boolean[] keep) {
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                xy[2*kept] = xy[2*i];
+                xy[2*kept + 1] = xy[2*i + 1];
+                kept++;
+            }
+        }
+        return kept;
+    }
+}
@@ -1,29 +1,93 @@
 package drawing;
 
 import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 /**
- * FIXME: STUB
+ * A line of text, drawn with its baseline starting at (startx, starty). The font is one of the shared instances
+ * in the FontRegistry, and crosses the network as its id there. The laid out glyphs are kept between draws, so a
+ * board full of labels isn't laid out again on every repaint.
+ * @author Alex Epstein
  */
 public class Text extends Drawing {
 
+    private static final FontRenderContext _MEASURE = new FontRenderContext(null, true, true);
 
     private char[] chars;
     // font uses default values, but should be dynamic and user-set
-    private Font font = new Font("Helvetica", Font.PLAIN, 18);
+    private Font font = FontRegistry.getDefault();
+    // The text laid out for the last context it was drawn in, and its size (relative to the baseline start)
+    private transient GlyphVector glyphs;
+    private transient java.awt.Rectangle extent;
 
     public Text(String artist, long timestamp, Color color) {
         super(artist, timestamp, color);
     }
 
+    public Text() {
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        out.writeUTF(chars == null ? "" : new String(chars));
+        FontRegistry.write(out, font);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        super.readExternal(in);
+        chars = in.readUTF().toCharArray();
+        font = FontRegistry.read(in);
+    }
+
+    public String getText() {
+        return chars == null ? "" : new String(chars);
+    }
+
     public void setCharArray(String string) {
         this.chars = string.toCharArray();
+        glyphs = null;
+        extent = null;
+    }
+
+    /**
+     * The box around the text, measured with the font's metrics (the text is drawn with its baseline at starty)
+     * @return
+     */
+    @Override
+    public java.awt.Rectangle getBounds() {
+        java.awt.Rectangle e = extent;
+        if (e == null) {
+            String s = chars == null ? "" : new String(chars);
+            e = font.getStringBounds(s, _MEASURE).getBounds();
+            e.grow(2, 2);
+            extent = e;
+        }
+        java.awt.Rectangle r = new java.awt.Rectangle(e);
+        r.translate(startx, starty);
+        return r;
     }
 
     public void drawToGraphics(Graphics g) {
         g.setColor(colour);
-        g.setFont(font);
-        g.drawChars(chars, 0, chars.length, startx, starty);
+        if (!(g instanceof Graphics2D)) {
+            g.setFont(font);
+            g.drawChars(chars, 0, chars.length, startx, starty);
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g;
+        FontRenderContext frc = g2.getFontRenderContext();
+        GlyphVector gv = glyphs;
+        if (gv == null || !gv.getFontRenderContext().equals(frc)) {
+            gv = font.createGlyphVector(frc, chars);
+            glyphs = gv;
+        }
+        g2.drawGlyphVector(gv, startx, starty);
     }
 
 }
@@ -13,6 +13,9 @@ public class Triangle extends Shape {
         super(artist, timestamp, color);
     }
 
+    public Triangle() {
+    }
+
     @Override
     public void drawToGraphics(Graphics g) {
 
@@ -0,0 +1,90 @@
+package drawing;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Helpers for the compact binary encoding of Drawings: zigzag varints for small signed numbers
+ * (coordinates and deltas between them) and a small shared cache that interns artist names as they are read.
+ * @author Alex Epstein
+ */
+public final class WireFormat {
+
+    // Artist names are interned through a fixed-size cache, a name per slot by its hash, so names sent by anyone
+    // can't grow it: a name that loses its slot to another is simply no longer shared
+    private static final int _ARTIST_SLOTS = 1024;
+    private static final String[] artists = new String[_ARTIST_SLOTS];
+
+    private WireFormat() {}
+
+    /**
+     * Writes a signed int in 1-5 bytes, small magnitudes (either sign) taking the fewest
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Writes a signed long in 1-10 bytes, small magnitudes (either sign) taking the fewest
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Returns the shared instance of the artist's name, if it has one, so drawings by the same artist share one
+     * String (and an ObjectOutputStream writes it once per stream, back-referencing it afterwards)
+     * @param artist
+     * @return
+     */
+    public static String internArtist(String artist) {
+        if (artist == null) return null;
+        int slot = artist.hashCode() & (_ARTIST_SLOTS - 1);
+        // Racing threads may each store their own copy; either is a valid canonical instance
+        String shared = artists[slot];
+        if (artist.equals(shared)) return shared;
+        artists[slot] = artist;
+        return artist;
+    }
+}
@@ -0,0 +1,276 @@
+package server;
+
+import client.IInteractiveCanvasManager;
+import util.UserIdentity;
+import util.VirtualThreads;
+
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relays server->client callbacks without blocking the caller. Every session has its own bounded
+ * outbound queue, drained in order by a sender task whenever it has calls waiting, so a slow or dead client
+ * only ever delays itself and a broadcast takes about as long as the slowest client, not the sum of them all.
+ * Sender tasks run on virtual threads where the JVM has them, so a client stuck in a call parks a virtual
+ * thread rather than holding a platform thread.
+ * Enqueueing is O(1) for the calling (RMI) thread. A session whose queue overflows, or that is stuck in a
+ * single call past the deadline, is reported as lagging and its channel closed rather than being allowed to
+ * hold up everyone else.
+ * @author Alex Epstein
+ */
+public class BroadcastEngine {
+
+    private static final int _DEFAULT_QUEUE_CAPACITY = 4096;
+    private static final long _DEFAULT_CALL_DEADLINE_MS = 10000;
+
+    /**
+     * A single outbound remote call to a client, e.g. (c, u) -> c.addDrawing(u, drawing)
+     */
+    @FunctionalInterface
+    public interface ClientCall {
+        void invoke(IInteractiveCanvasManager client, UserIdentity uid) throws RemoteException;
+    }
+
+    /**
+     * Told when a session can't keep up with its queue and its channel has been closed
+     */
+    @FunctionalInterface
+    public interface LagListener {
+        void sessionLagging(Session session);
+    }
+
+    private final int queueCapacity;
+    private final long deadlineNanos;
+    private final LagListener lagListener;
+    private final ExecutorService senders = VirtualThreads.newPerTaskExecutor("whiteboard-sender");
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "whiteboard-deadline");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Set<Session> open = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    public BroadcastEngine(LagListener lagListener) {
+        this(_DEFAULT_QUEUE_CAPACITY, _DEFAULT_CALL_DEADLINE_MS, lagListener);
+    }
+
+    /**
+     * @param queueCapacity: calls that may wait for each session before it is dropped
+     * @param deadlineMillis: how long a single call to a client may take before it is dropped
+     * @param lagListener
+     */
+    public BroadcastEngine(int queueCapacity, long deadlineMillis, LagListener lagListener) {
+        this.queueCapacity = queueCapacity;
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.lagListener = lagListener;
+        long period = Math.max(1, deadlineMillis / 4);
+        watchdog.scheduleWithFixedDelay(this::checkDeadlines, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens an outbound channel for the session
+     * @param session
+     */
+    public void open(Session session) {
+        session.channel = new ClientChannel(session.uid, session.client, queueCapacity);
+        open.add(session);
+    }
+
+    /**
+     * Closes the session's channel. Calls still queued for it are discarded.
+     * @param session
+     */
+    public void close(Session session) {
+        ClientChannel channel = session.channel;
+        open.remove(session);
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Queues a last call for the session (e.g. telling a kicked user they have been removed), then closes its
+     * channel once that call has been made, has failed, or has been cut off by the deadline. Nothing queued for the
+     * session afterwards is sent.
+     * @param session
+     * @param last
+     */
+    public void closeAfter(Session session, ClientCall last) {
+        ClientChannel channel = session.channel;
+        if (channel == null || channel.closed) return;
+        channel.closing = true;
+        ClientCall closing = (c, u) -> {
+            try {
+                last.invoke(c, u);
+            } finally {
+                close(session);
+            }
+        };
+        if (channel.queue.offer(closing)) {
+            channel.schedule();
+        } else {
+            close(session);
+        }
+    }
+
+    /**
+     * Queues the call for every session
+     * @param sessions
+     * @param call
+     */
+    public void broadcast(Iterable<Session> sessions, ClientCall call) {
+        for (Session session : sessions) {
+            send(session, call);
+        }
+    }
+
+    /**
+     * Queues a call that may be skipped, e.g. a preview that something later supersedes, for every session except
+     * one. Sessions already holding more than maxBacklog queued calls are skipped rather than fed more.
+     * @param sessions
+     * @param except: the session to leave out (usually the sender), or null
+     * @param maxBacklog
+     * @param call
+     */
+    public void broadcastDroppable(Iterable<Session> sessions, Session except, int maxBacklog, ClientCall call) {
+        for (Session session : sessions) {
+            if (session == except) continue;
+            ClientChannel channel = session.channel;
+            if (channel != null && channel.queue.size() <= maxBacklog) {
+                send(session, call);
+            }
+        }
+    }
+
+    /**
+     * Queues the call for a single session
+     * @param session
+     * @param call
+     */
+    public void send(Session session, ClientCall call) {
+        ClientChannel channel = session.channel;
+        if (channel == null || channel.closed || channel.closing) return;
+        if (!channel.queue.offer(call)) {
+            // Queue full: this client is too far behind. Drop it instead of blocking everyone else
+            drop(session);
+            return;
+        }
+        channel.schedule();
+    }
+
+    /**
+     * @return the number of calls to clients under way right now
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of calls to clients that overran the deadline, each dropping its session
+     */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * Reports how many calls are waiting to be sent to each session
+     * @param sessions
+     * @return username -> queued calls
+     */
+    public Map<String, Integer> getBacklog(Iterable<Session> sessions) {
+        Map<String, Integer> backlog = new HashMap<>();
+        for (Session session : sessions) {
+            ClientChannel channel = session.channel;
+            backlog.put(session.uid.username, channel == null ? 0 : channel.queue.size());
+        }
+        return backlog;
+    }
+
+    private void drop(Session session) {
+        close(session);
+        lagListener.sessionLagging(session);
+    }
+
+    /**
+     * Drops every session whose current call has run past the deadline
+     */
+    private void checkDeadlines() {
+        long now = System.nanoTime();
+        for (Session session : open) {
+            ClientChannel channel = session.channel;
+            if (channel == null) continue;
+            long started = channel.callStarted;
+            if (started != 0 && now - started > deadlineNanos) {
+                timedOut.incrementAndGet();
+                drop(session);
+            }
+        }
+    }
+
+    /**
+     * The outbound queue of one client, and the task that drains it in order. At most one sender task runs for
+     * a channel at a time, and only while it has calls waiting.
+     */
+    class ClientChannel implements Runnable {
+
+        final UserIdentity uid;
+        final IInteractiveCanvasManager client;
+        final BlockingQueue<ClientCall> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed = false;
+        // Set by closeAfter: the channel takes no more calls, and closes once its last one is made
+        private volatile boolean closing = false;
+        // When the call under way started (System.nanoTime), or 0 if none is
+        private volatile long callStarted;
+
+        ClientChannel(UserIdentity uid, IInteractiveCanvasManager client, int capacity) {
+            this.uid = uid;
+            this.client = client;
+            this.queue = new LinkedBlockingQueue<>(capacity);
+        }
+
+        /**
+         * Starts a sender task, unless one is already draining the queue
+         */
+        void schedule() {
+            if (!closed && scheduled.compareAndSet(false, true)) {
+                senders.execute(this);
+            }
+        }
+
+        void close() {
+            closed = true;
+            queue.clear();
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                ClientCall call = queue.poll();
+                if (call == null) {
+                    scheduled.set(false);
+                    // A call may have been queued after the poll but before giving up the flag
+                    if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) return;
+                    continue;
+                }
+                inFlight.incrementAndGet();
+                callStarted = Math.max(1, System.nanoTime());
+                try {
+                    call.invoke(client, uid);
+                } catch (RemoteException | RuntimeException ignored) {
+                } finally {
+                    callStarted = 0;
+                    inFlight.decrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package server;
+
+import drawing.Drawing;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * What a client needs to bring its copy of the canvas up to date: the drawings it is missing, in order.
+ * A fresh join receives the bulk of the canvas as a compressed snapshot (encoded once by the server and shared
+ * between joins) followed by a short tail of drawings added since; a reconnecting client receives only the tail.
+ * If reset is set, the canvas was cleared since the client last synced and it must discard what it has first.
+ * A delta answering a region query holds only the drawings that touch the region, up to its sequence number.
+ * @author Alex Epstein
+ */
+public class CanvasDelta implements Serializable {
+
+    public final boolean reset;
+    // The sequence number of the newest drawing included; every drawing up to it has been included
+    public final long seq;
+    private final byte[] snapshot;
+    private final ArrayList<Drawing> tail;
+
+    public CanvasDelta(boolean reset, long seq, byte[] snapshot, ArrayList<Drawing> tail) {
+        this.reset = reset;
+        this.seq = seq;
+        this.snapshot = snapshot;
+        this.tail = tail;
+    }
+
+    /**
+     * Decodes the snapshot (if any) and appends the tail
+     * @return the drawings, in order
+     * @throws IOException
+     */
+    public ArrayList<Drawing> getDrawings() throws IOException {
+        ArrayList<Drawing> drawings = snapshot == null ? new ArrayList<>() : decode(snapshot);
+        drawings.addAll(tail);
+        return drawings;
+    }
+
+    /**
+     * Encodes drawings into the compressed snapshot form
+     * @param drawings
+     * @return
+     * @throws IOException
+     */
+    public static byte[] encode(List<Drawing> drawings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED)))) {
+            out.writeInt(drawings.size());
+            for (Drawing d : drawings) {
+                out.writeObject(d);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the compressed snapshot form
+     * @param snapshot
+     * @return
+     * @throws IOException
+     */
+    public static ArrayList<Drawing> decode(byte[] snapshot) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(snapshot)))) {
+            int n = in.readInt();
+            ArrayList<Drawing> drawings = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                drawings.add((Drawing) in.readObject());
+            }
+            return drawings;
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Corrupt canvas snapshot", e);
+        }
+    }
+}
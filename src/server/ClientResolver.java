@@ -0,0 +1,23 @@
+package server;
+
+import client.IInteractiveCanvasManager;
+import util.UserIdentity;
+
+import java.rmi.RemoteException;
+
+/**
+ * Finds the object the server calls back on for a user who is starting or joining the whiteboard. How depends on
+ * how the user is connected: over RMI their client is bound in the registry under their username, while over a
+ * direct connection it is at the other end of the connection the call came in on.
+ * @author Alex Epstein
+ */
+@FunctionalInterface
+public interface ClientResolver {
+
+    /**
+     * @param uid
+     * @return the user's client, or null if it can't be found
+     * @throws RemoteException
+     */
+    IInteractiveCanvasManager resolve(UserIdentity uid) throws RemoteException;
+}
@@ -0,0 +1,210 @@
+package server;
+
+import drawing.Drawing;
+import drawing.QuadTree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Append-only log of the drawings on the canvas. Any number of threads may append at once, each claiming its
+ * own slot with a single atomic compare-and-set, and readers take snapshots without locking.
+ * A snapshot is always a gap-free prefix of the log: slots that have been claimed but not yet written end it.
+ * Storage is a directory of fixed-size chunks, allocated as the log grows.
+ *
+ * Every drawing is stamped with a sequence number as it is appended. Sequence numbers carry on from one log to
+ * the next when the canvas is cleared, so they increase for the whole life of the server: the drawing in slot i
+ * has sequence number baseSeq + i + 1.
+ *
+ * The log also keeps a spatial index for region queries. Appends don't touch it: each query first indexes
+ * whatever has been appended since the last one, so its cost falls on readers, never on the append path.
+ * @author Alex Epstein
+ */
+public class DrawingLog {
+
+    private static final int _CHUNK_BITS = 10;
+    private static final int _CHUNK_SIZE = 1 << _CHUNK_BITS;
+    private static final int _CHUNK_MASK = _CHUNK_SIZE - 1;
+    private static final int _MAX_CHUNKS = 1 << 16;
+    private static final long _CAPACITY = (long) _MAX_CHUNKS * _CHUNK_SIZE;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<Drawing>> chunks = new AtomicReferenceArray<>(_MAX_CHUNKS);
+    // Slots claimed so far; once sealed, stored as -(size + 1)
+    private final AtomicLong reserved = new AtomicLong();
+    private final long baseSeq;
+    // Guarded by itself; indexed holds how many slots it covers
+    private final QuadTree index = new QuadTree();
+    private long indexed = 0;
+
+    public DrawingLog() {
+        this(0);
+    }
+
+    /**
+     * @param baseSeq: the sequence number of the last drawing before this log
+     */
+    public DrawingLog(long baseSeq) {
+        this.baseSeq = baseSeq;
+    }
+
+    /**
+     * Appends the drawing to the end of the log and stamps it with its sequence number
+     * @param drawing
+     * @return the sequence number, or -1 if the log has been sealed
+     */
+    public long append(Drawing drawing) {
+        long index = reserve(1);
+        if (index < 0) return -1;
+        drawing.seq = baseSeq + index + 1;
+        chunk((int) (index >>> _CHUNK_BITS)).set((int) (index & _CHUNK_MASK), drawing);
+        return drawing.seq;
+    }
+
+    /**
+     * Appends a batch of drawings as one contiguous run, claiming all of their slots with a single atomic update
+     * @param batch
+     * @return the sequence number of the first drawing of the batch, or -1 if the log has been sealed
+     */
+    public long appendAll(Collection<Drawing> batch) {
+        long first = reserve(batch.size());
+        if (first < 0) return -1;
+        long index = first;
+        for (Drawing drawing : batch) {
+            drawing.seq = baseSeq + index + 1;
+            chunk((int) (index >>> _CHUNK_BITS)).set((int) (index & _CHUNK_MASK), drawing);
+            index++;
+        }
+        return baseSeq + first + 1;
+    }
+
+    /**
+     * Closes the log to further appends (appends racing with this either make it in, or are refused)
+     * @return the sequence number of the last drawing in the log, which the next log should carry on from
+     */
+    public long seal() {
+        while (true) {
+            long r = reserved.get();
+            if (r < 0) return baseSeq - r - 1;
+            if (reserved.compareAndSet(r, -r - 1)) return baseSeq + r;
+        }
+    }
+
+    /**
+     * Returns the drawing at the given position, or null if that slot has not been written yet
+     * @param index
+     * @return
+     */
+    public Drawing get(long index) {
+        if (index < 0 || index >= size()) return null;
+        AtomicReferenceArray<Drawing> chunk = chunks.get((int) (index >>> _CHUNK_BITS));
+        if (chunk == null) return null;
+        return chunk.get((int) (index & _CHUNK_MASK));
+    }
+
+    /**
+     * Copies every drawing from the given position up to the first unwritten slot
+     * @param from
+     * @return the drawings, in log order
+     */
+    public ArrayList<Drawing> snapshot(long from) {
+        long end = size();
+        ArrayList<Drawing> copy = new ArrayList<>((int) Math.max(0, Math.min(end - from, Integer.MAX_VALUE)));
+        for (long i = Math.max(0, from); i < end; i++) {
+            Drawing d = get(i);
+            if (d == null) break;
+            copy.add(d);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the whole log
+     * @return the drawings, in log order
+     */
+    public ArrayList<Drawing> snapshot() {
+        return snapshot(0);
+    }
+
+    /**
+     * Copies every drawing with a sequence number greater than seq
+     * @param seq
+     * @return the drawings, in log order
+     */
+    public ArrayList<Drawing> since(long seq) {
+        return snapshot(Math.max(0, seq - baseSeq));
+    }
+
+    /**
+     * Copies every drawing whose bounding box intersects the area
+     * @param area
+     * @return the drawings, in log order
+     */
+    public ArrayList<Drawing> region(java.awt.Rectangle area) {
+        ArrayList<Drawing> hits = new ArrayList<>();
+        region(area, hits);
+        return hits;
+    }
+
+    /**
+     * Finds every drawing whose bounding box intersects the area
+     * @param area
+     * @param hits: receives the drawings, in log order
+     * @return the sequence number the answer is complete up to: every drawing up to it that touches the area is
+     * included (and none after it)
+     */
+    public long region(java.awt.Rectangle area, ArrayList<Drawing> hits) {
+        long upTo;
+        synchronized (index) {
+            long end = size();
+            while (indexed < end) {
+                Drawing d = get(indexed);
+                if (d == null) break;
+                index.insert(d);
+                indexed++;
+            }
+            upTo = baseSeq + indexed;
+            index.query(area, hits);
+        }
+        hits.sort(Comparator.comparingLong(d -> d.seq));
+        return upTo;
+    }
+
+    /**
+     * The number of slots claimed so far (including any still being written)
+     * @return
+     */
+    public long size() {
+        long r = reserved.get();
+        return r < 0 ? -r - 1 : r;
+    }
+
+    /**
+     * @return the sequence number of the last drawing before this log
+     */
+    public long getBaseSeq() {
+        return baseSeq;
+    }
+
+    private long reserve(int n) {
+        while (true) {
+            long r = reserved.get();
+            if (r < 0) return -1;
+            if (r + n > _CAPACITY) {
+                throw new IllegalStateException("Drawing log is full");
+            }
+            if (reserved.compareAndSet(r, r + n)) return r;
+        }
+    }
+
+    private AtomicReferenceArray<Drawing> chunk(int c) {
+        AtomicReferenceArray<Drawing> chunk = chunks.get(c);
+        if (chunk == null) {
+            chunks.compareAndSet(c, null, new AtomicReferenceArray<>(_CHUNK_SIZE));
+            chunk = chunks.get(c);
+        }
+        return chunk;
+    }
+}
@@ -1,6 +1,7 @@
 package server;
 
 import drawing.Drawing;
+import drawing.FreeLine;
 import util.UserIdentity;
 
 import java.rmi.Remote;
@@ -15,18 +16,35 @@ import java.util.Collection;
  */
 public interface IRemoteWhiteboard extends Remote {
 
-    public boolean joinWhiteboard(UserIdentity uid) throws RemoteException;
-    public boolean startWhiteboard(UserIdentity uid) throws RemoteException;
-    public ArrayList<Drawing> getCanvas(UserIdentity uid) throws RemoteException;
+    // What the calls either way pass besides strings and boxed numbers, as an ObjectInputFilter pattern: over a
+    // direct (nio://) connection, nothing else is deserialized
+    String _NIO_CLASSES = "util.UserIdentity;drawing.*;server.CanvasDelta;server.RateLimitedException;"
+            + "java.util.ArrayList";
 
-    public void drawToCanvas(UserIdentity uid, Drawing drawing) throws RemoteException;
-    public void drawAllToCanvas(UserIdentity uid, Collection<Drawing> drawings) throws RemoteException;
+    // Both return the session token the caller must present from then on, or null if refused
+    public String joinWhiteboard(UserIdentity uid) throws RemoteException;
+    public String startWhiteboard(UserIdentity uid) throws RemoteException;
+    // Admin only: approves or refuses any number of the joins waiting for a decision
+    public void decideJoins(UserIdentity uid, Collection<String> usernames, boolean approve) throws RemoteException;
+    public ArrayList<Drawing> getCanvas(UserIdentity uid) throws RemoteException;
+    // Drawings added after the given sequence number (or a full snapshot, if the canvas was cleared or replaced since)
+    public CanvasDelta getCanvasSince(UserIdentity uid, long seq) throws RemoteException;
+    // Just the drawings whose bounds touch the given area, in order, up to the delta's sequence number
+    public CanvasDelta getCanvasRegion(UserIdentity uid, int x, int y, int width, int height) throws RemoteException;
+    // Tells the server every drawing up to seq has been applied by this client
+    public void acknowledge(UserIdentity uid, long seq) throws RemoteException;
+
+    // Refused with a RateLimitedException if the user is over their budget; nothing is drawn, and they may retry
+    public void drawToCanvas(UserIdentity uid, Drawing drawing) throws RateLimitedException, RemoteException;
+    public void drawAllToCanvas(UserIdentity uid, Collection<Drawing> drawings) throws RateLimitedException, RemoteException;
+    // Relays the newest points of a stroke that is still being drawn; the finished stroke follows via drawToCanvas
+    public void appendToStroke(UserIdentity uid, FreeLine segment) throws RemoteException;
     public void clearCanvas(UserIdentity uid) throws RemoteException;
     public ArrayList<UserIdentity> getUsers(UserIdentity uid) throws RemoteException;
 
     public void notifyDisconnect(UserIdentity uid) throws RemoteException;
 
-    public void sendMessage(UserIdentity uid, String message) throws RemoteException;
+    public void sendMessage(UserIdentity uid, String message) throws RateLimitedException, RemoteException;
 
     public void removeUser(UserIdentity uid, String kickID) throws RemoteException;
 }
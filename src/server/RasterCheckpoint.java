@@ -0,0 +1,109 @@
+package server;
+
+import drawing.Drawing;
+import drawing.Picture;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The canvas up to some sequence number, rendered to PNG tiles. A joining client is sent these pictures (all of
+ * them, or those in view) plus the drawings added since, rather than every drawing ever made, so joining costs in
+ * proportion to the area drawn on and not to the length of the history.
+ *
+ * Only canvases whose drawings all fit in a bounded area are checkpointed: a drawing left out of the raster would
+ * have to be sent separately, on top of it, changing how it is layered. Rendering uses nothing but BufferedImage
+ * and ImageIO, so it works on a headless server (java.awt.headless=true).
+ * @author Alex Epstein
+ */
+class RasterCheckpoint {
+
+    static final int _TILE_SIZE = 512;
+    // At most a 4096x4096 area, rendered a tile at a time
+    static final int _MAX_TILES = 64;
+
+    final DrawingLog log;
+    // Every drawing up to this sequence number is in the raster
+    final long seq;
+    // The pictures, encoded as a CanvasDelta snapshot
+    final byte[] bytes;
+    private final ArrayList<Drawing> pictures;
+
+    private RasterCheckpoint(DrawingLog log, long seq, ArrayList<Drawing> pictures) throws IOException {
+        this.log = log;
+        this.seq = seq;
+        this.pictures = pictures;
+        this.bytes = CanvasDelta.encode(pictures);
+    }
+
+    /**
+     * The tiles that intersect an area
+     * @param area
+     * @return
+     */
+    ArrayList<Drawing> region(Rectangle area) {
+        ArrayList<Drawing> hits = new ArrayList<>();
+        for (Drawing picture : pictures) {
+            if (picture.getBounds().intersects(area)) hits.add(picture);
+        }
+        return hits;
+    }
+
+    /**
+     * Renders the log as it stands
+     * @param log
+     * @return the checkpoint, or null if the log is empty or its drawings spread over too large an area
+     * @throws IOException
+     */
+    static RasterCheckpoint build(DrawingLog log) throws IOException {
+        ArrayList<Drawing> all = log.snapshot();
+        if (all.isEmpty()) return null;
+        long seq = log.getBaseSeq() + all.size();
+
+        Rectangle area = null;
+        for (Drawing d : all) {
+            area = area == null ? d.getBounds() : area.union(d.getBounds());
+        }
+        int tx0 = Math.floorDiv(area.x, _TILE_SIZE);
+        int ty0 = Math.floorDiv(area.y, _TILE_SIZE);
+        int tx1 = Math.floorDiv(area.x + area.width - 1, _TILE_SIZE);
+        int ty1 = Math.floorDiv(area.y + area.height - 1, _TILE_SIZE);
+        if ((long) (tx1 - tx0 + 1) * (ty1 - ty0 + 1) > _MAX_TILES) return null;
+
+        ArrayList<Drawing> pictures = new ArrayList<>();
+        BufferedImage image = new BufferedImage(_TILE_SIZE, _TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Rectangle tile = new Rectangle(tx * _TILE_SIZE, ty * _TILE_SIZE, _TILE_SIZE, _TILE_SIZE);
+                ArrayList<Drawing> hits = log.region(tile);
+                hits.removeIf(d -> d.seq > seq);
+                if (hits.isEmpty()) continue;
+
+                Graphics2D g = image.createGraphics();
+                g.setComposite(java.awt.AlphaComposite.Clear);
+                g.fillRect(0, 0, _TILE_SIZE, _TILE_SIZE);
+                g.setComposite(java.awt.AlphaComposite.SrcOver);
+                g.translate(-tile.x, -tile.y);
+                for (Drawing d : hits) {
+                    d.drawToGraphics(g);
+                }
+                g.dispose();
+
+                png.reset();
+                ImageIO.write(image, "png", png);
+                Picture picture = new Picture(null, System.currentTimeMillis(), png.toByteArray(),
+                        tile.x, tile.y, _TILE_SIZE, _TILE_SIZE);
+                // Layered beneath everything drawn after the checkpoint, and cleared along with what it shows
+                picture.seq = seq;
+                pictures.add(picture);
+            }
+        }
+        return new RasterCheckpoint(log, seq, pictures);
+    }
+}
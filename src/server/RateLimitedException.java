@@ -0,0 +1,38 @@
+package server;
+
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+
+/**
+ * Thrown to a client that has used up one of its budgets (drawings, points or chat messages per second).
+ * Nothing was done: the client should wait for the given time, then send the call again.
+ * Over RMI it reaches the client wrapped in a ServerException, like anything a remote method throws; of() finds it.
+ * @author Alex Epstein
+ */
+public class RateLimitedException extends RemoteException {
+
+    private final long retryAfterMillis;
+
+    public RateLimitedException(String budget, long retryAfterMillis) {
+        super("Over the " + budget + " budget; retry in " + retryAfterMillis + "ms");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Finds the RateLimitedException in what a remote call threw: wrapped in a ServerException over RMI, or as
+     * itself over a direct connection
+     * @param e
+     * @return the exception, or null if the call failed for some other reason
+     */
+    public static RateLimitedException of(RemoteException e) {
+        if (e instanceof RateLimitedException) return (RateLimitedException) e;
+        if (e instanceof ServerException && e.detail instanceof RateLimitedException) {
+            return (RateLimitedException) e.detail;
+        }
+        return null;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -2,11 +2,21 @@ package server;
 
 import client.IInteractiveCanvasManager;
 import client.InteractiveCanvasManager;
+import drawing.Circle;
 import drawing.Drawing;
+import drawing.FreeLine;
+import drawing.Line;
+import drawing.Rectangle;
+import drawing.Text;
+import drawing.Triangle;
+import transport.Connection;
+import transport.NioEndpoint;
 import util.UserIdentity;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.nio.file.Path;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
@@ -15,116 +25,298 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Is a remote object that maintains a canonical array of Drawing objects, and is responsible for server->client
+ * Is a remote object that maintains a canonical log of Drawing objects, and is responsible for server->client
  * communication (mostly a relay of the form client->server->clients*)
+ * All state is safe to use from many RMI threads at once: sessions live in a concurrent map keyed by username,
+ * and drawings in an append-only log.
  * @author Alex Epstein with thanks to skeleton code: https://en.wikipedia.org/wiki/Java_remote_method_invocation
  */
 public class RemoteWhiteboard extends UnicastRemoteObject implements IRemoteWhiteboard {
 
-    private UserIdentity admin;
-    private IInteractiveCanvasManager adminClient;
+    // Clients further behind than this stop receiving live stroke previews until they catch up
+    private static final int _STROKE_PREVIEW_MAX_BACKLOG = 64;
+    // Re-encode the join snapshot once this many drawings have been added since it was made
+    private static final int _SNAPSHOT_MAX_TAIL = 256;
+    // How many of each sender's most recent drawing ids are remembered to catch retried submissions
+    private static final int _RECENT_IDS_PER_SENDER = 4096;
+    // The kinds of drawing a client may submit. Pictures are the server's own, for its raster checkpoint
+    private static final Set<Class<? extends Drawing>> _CLIENT_DRAWABLE =
+            Set.of(Line.class, Rectangle.class, Circle.class, Triangle.class, FreeLine.class, Text.class);
+    // Joins and region fetches are served from a raster checkpoint once the canvas has this many drawings; it is rebuilt in the
+    // background (checked every interval) once this many more have been added
+    private static final int _CHECKPOINT_MIN_DRAWINGS = 1000;
+    private static final int _CHECKPOINT_MIN_NEW = 256;
+    private static final long _CHECKPOINT_INTERVAL_MS = 2000;
+    // The largest call a client may send over a direct connection: comfortably a batch of an uploaded file
+    private static final int _NIO_MAX_FRAME = 4 << 20;
+    // A join the admin hasn't decided on within this long is refused
+    private static final long _JOIN_DECISION_TIMEOUT_MS = 120000;
+
+    private volatile ClientResolver clientResolver = this::resolveClient;
+    private volatile UserIdentity admin;
+    // Joins waiting for the admin, by username, in the order they were asked for
+    private final LinkedHashMap<String, PendingJoin> pendingJoins = new LinkedHashMap<>();
     private String hostname;
-    private ArrayList<UserIdentity> users = new ArrayList<UserIdentity>();
-    private ArrayList<IInteractiveCanvasManager> clients = new ArrayList<IInteractiveCanvasManager>();
-    private ArrayList<Drawing> drawings;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    // Index of the same sessions by token, so that every call is authorised with a single hash lookup
+    private final ConcurrentHashMap<String, Session> sessionsByToken = new ConcurrentHashMap<>();
+    private volatile DrawingLog drawings = new DrawingLog();
+    private final BroadcastEngine broadcaster = new BroadcastEngine(this::dropLaggingSession);
+    private volatile EncodedSnapshot joinSnapshot;
+    private volatile RasterCheckpoint checkpoint;
+    private final ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "whiteboard-checkpoint");
+        t.setDaemon(true);
+        return t;
+    });
+    // Recently accepted drawing ids by sender, so that a drawing resent after a RemoteException isn't added twice
+    private final ConcurrentHashMap<String, RecentIds> recentIds = new ConcurrentHashMap<>();
+    // Persists the canvas across restarts; null if the server keeps it in memory only
+    private final WriteAheadLog wal;
+    // Calls refused for exceeding a budget, by budget
+    private final ConcurrentHashMap<String, AtomicLong> throttled = new ConcurrentHashMap<>();
 
     /**
      * Creates a new instance of the manager on the provided hostname (i.e., binds self to //hostname:1099/Whiteboard)
+     * The canvas is kept in memory only.
      * @throws IOException
      */
     public RemoteWhiteboard(String hostname) throws IOException {
+        this(hostname, null);
+    }
+
+    /**
+     * Creates a new instance of the manager on the provided hostname, first recovering the canvas from the
+     * write-ahead log in dataDir, and logging every change to it from then on
+     * @param hostname
+     * @param dataDir: where the canvas is persisted, or null to keep it in memory only
+     * @throws IOException
+     */
+    public RemoteWhiteboard(String hostname, Path dataDir) throws IOException {
 
         super();
         this.hostname = hostname;
 
+        if (dataDir != null) {
+            wal = new WriteAheadLog(dataDir);
+            drawings = wal.recover();
+            System.out.println("Recovered " + drawings.size() + " drawings from " + dataDir);
+            wal.start(() -> drawings);
+        } else {
+            wal = null;
+        }
+        checkpointer.scheduleWithFixedDelay(this::refreshCheckpoint, _CHECKPOINT_INTERVAL_MS, _CHECKPOINT_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes the whiteboard reachable over RMI: creates the registry and binds self to //hostname:1099/Whiteboard
+     * @return false if the registry already exists or binding failed
+     */
+    public boolean bindRmi() {
         try {
             int RMI_PORT = 1099;
             LocateRegistry.createRegistry(RMI_PORT);
             System.out.println("RMI registry created");
         } catch (RemoteException e) {
             System.out.println("Error: RMI registry already exists");
-            return;
+            return false;
         }
         try {
             Naming.rebind("//" + hostname + "/Whiteboard", this);
             System.out.println("Whiteboard bound in registry!");
+            return true;
         } catch (RemoteException | MalformedURLException e) {
             System.out.println("RMI error");
+            return false;
         }
+    }
+
+    /**
+     * Makes the whiteboard reachable over direct NIO connections (nio://hostname:port), alongside RMI, listening
+     * on the server's hostname only. A client whose connection drops is treated as having disconnected.
+     * @param port
+     * @return
+     * @throws IOException
+     */
+    public NioEndpoint listenNio(int port) throws IOException {
+        NioEndpoint endpoint = NioEndpoint.listen(new InetSocketAddress(hostname, port), _NIO_MAX_FRAME,
+                IRemoteWhiteboard._NIO_CLASSES, IRemoteWhiteboard.class, this, IInteractiveCanvasManager.class,
+                connection -> connection.setOnClose(() -> dropClient(connection.getProxy())));
+        System.out.println("Whiteboard listening on " + hostname + ":" + port);
+        return endpoint;
+    }
+
+    /**
+     * Replaces how the server finds a starting or joining user's client
+     * @param clientResolver
+     */
+    public void setClientResolver(ClientResolver clientResolver) {
+        this.clientResolver = clientResolver;
+    }
 
-        this.drawings = new ArrayList<Drawing>();
+    /**
+     * The default ClientResolver: the other end of the user's connection if they came in over NIO, otherwise
+     * their client bound in the RMI registry under their username
+     * @param uid
+     * @return
+     * @throws RemoteException
+     */
+    private IInteractiveCanvasManager resolveClient(UserIdentity uid) throws RemoteException {
+        Connection connection = Connection.current();
+        if (connection != null) {
+            return connection.getProxy();
+        }
+        try {
+            return (IInteractiveCanvasManager) Naming.lookup("//" + hostname + "/" + uid.username);
+        } catch (NotBoundException | MalformedURLException | ClassCastException e) {
+            return null;
+        }
     }
 
     /**
      * The admin role is set to the first user to call this method after the server has started.
-     * If admin role has been claimed, or if the server encounters an RMI error, returns false, true otherwise.
+     * If admin role has been claimed, or if the server encounters an RMI error, returns null,
+     * otherwise the admin's session token.
      * @param uid
      * @return
      * @throws RemoteException
      */
-    public boolean startWhiteboard(UserIdentity uid) throws RemoteException {
+    public synchronized String startWhiteboard(UserIdentity uid) throws RemoteException {
         if (admin == null) {
-            admin = uid;
-            try {
-                adminClient = (IInteractiveCanvasManager) Naming.lookup( "//" + hostname + "/" + uid.username);
-                clients.add(adminClient);
-                users.add(uid);
-                adminClient.notifyUserJoin(uid, uid.username);
-            } catch (NotBoundException | MalformedURLException | ClassCastException e) {
-                admin = null;
-                return false;
+            IInteractiveCanvasManager c = clientResolver.resolve(uid);
+            if (c == null) {
+                return null;
             }
-            return true;
-        } else return false;
+            Session session = new Session(uid, c);
+            if (!addSession(session)) {
+                return null;
+            }
+            admin = uid;
+            broadcaster.open(session);
+            broadcaster.send(session, (client, u) -> client.notifyUserJoin(u, u.username));
+            return session.token;
+        } else return null;
     }
 
     /**
      * Allows new users to join the server, subject to the admin's approval.
-     * If the admin rejects the user or RMI error, returns false, otherwise true.
+     * The join is queued for the admin, who decides on any number of waiting joins at once (see decideJoins);
+     * meanwhile this call waits, parked, so joins never queue up behind one another.
+     * If the admin rejects the user, doesn't decide in time, or leaves, returns null, otherwise the user's
+     * session token.
      * @param uid
      * @return
      * @throws RemoteException
      */
-    public boolean joinWhiteboard(UserIdentity uid) throws RemoteException {
+    public String joinWhiteboard(UserIdentity uid) throws RemoteException {
+
+        if (sessions.containsKey(uid.username)) {
+            // No duplicates
+            return null;
+        }
 
-        for (UserIdentity u : users) {
-            if (uid.username.equals(u.username)) {
-                // No duplicates
-                return false;
+        PendingJoin join = new PendingJoin();
+        synchronized (pendingJoins) {
+            if (adminSession() == null || pendingJoins.putIfAbsent(uid.username, join) != null) {
+                return null;
             }
+            notifyAdminOfJoins();
         }
 
-        if (approveUser(uid)) {
-            try {
-                IInteractiveCanvasManager c = (IInteractiveCanvasManager) Naming.lookup( "//" + hostname + "/" + uid.username);
-                for (int i = 0; i < clients.size(); i++) {
-                    // Notify other clients of the new user
-                    clients.get(i).notifyUserJoin(users.get(i), uid.username);
-                    // Notify new user of other clients
-                    c.notifyUserJoin(uid, users.get(i).username);
+        boolean approved;
+        try {
+            approved = join.decision.get(_JOIN_DECISION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            approved = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            approved = false;
+        } finally {
+            // Still listed if the admin never decided
+            synchronized (pendingJoins) {
+                if (pendingJoins.remove(uid.username, join)) {
+                    notifyAdminOfJoins();
                 }
-                // Notify user that it, itself, has joined
-                c.notifyUserJoin(uid, uid.username);
-                // Add uid and ICM to the user mgmt
-                users.add(uid);
-                clients.add(c);
-            } catch (NotBoundException | MalformedURLException | ClassCastException e) {
-                return false;
             }
-            return true;
-        } else return false;
+        }
+
+        if (approved) {
+            IInteractiveCanvasManager c = clientResolver.resolve(uid);
+            if (c == null) {
+                return null;
+            }
+            Session session = new Session(uid, c);
+            if (!addSession(session)) {
+                // Someone else took the name while the admin was deciding
+                return null;
+            }
+            broadcaster.open(session);
+            // Queued rather than called here, so the join waits on no one but the admin
+            for (Session other : sessions.values()) {
+                if (other == session) continue;
+                String otherName = other.uid.username;
+                // Notify other clients of the new user
+                broadcaster.send(other, (client, u) -> client.notifyUserJoin(u, uid.username));
+                // Notify new user of other clients
+                broadcaster.send(session, (client, u) -> client.notifyUserJoin(u, otherName));
+            }
+            // Notify user that it, itself, has joined
+            broadcaster.send(session, (client, u) -> client.notifyUserJoin(u, u.username));
+            return session.token;
+        } else return null;
     }
 
     /**
-     * Calls the approveUser() method of the admin to ask for approval
+     * Called by the admin to approve or refuse waiting joins
      * @param uid
-     * @return approval
+     * @param usernames: the users decided on; any that are no longer waiting are ignored
+     * @param approve
      * @throws RemoteException
      */
-    private boolean approveUser(UserIdentity uid) throws RemoteException {
-        return adminClient.approveUser(admin, uid);
+    public void decideJoins(UserIdentity uid, Collection<String> usernames, boolean approve) throws RemoteException {
+        if (!isAdmin(uid)) return;
+        synchronized (pendingJoins) {
+            for (String username : usernames) {
+                PendingJoin join = pendingJoins.remove(username);
+                if (join != null) {
+                    join.decision.complete(approve);
+                }
+            }
+            notifyAdminOfJoins();
+        }
+    }
+
+    /**
+     * Queues the current list of waiting joins for the admin. Called with pendingJoins locked, so the admin
+     * receives the lists in the order they were made.
+     */
+    private void notifyAdminOfJoins() {
+        Session session = adminSession();
+        if (session == null) return;
+        ArrayList<String> waiting = new ArrayList<>(pendingJoins.keySet());
+        broadcaster.send(session, (c, u) -> c.notifyJoinRequests(u, waiting));
+    }
+
+    /**
+     * A join waiting for the admin, completed with their decision
+     */
+    private static class PendingJoin {
+        final CompletableFuture<Boolean> decision = new CompletableFuture<>();
     }
 
     /**
@@ -134,33 +326,123 @@ public class RemoteWhiteboard extends UnicastRemoteObject implements IRemoteWhit
      * @throws RemoteException
      */
     public void notifyDisconnect(UserIdentity uid) throws RemoteException {
-        if (!isUser(uid)) {
-            return;
+        Session session = getSession(uid);
+        if (session != null) {
+            endSession(session);
         }
+    }
 
-        int j = 0;
+    /**
+     * Registers a new session under its username and token, unless the username is taken
+     * @param session
+     * @return true if added
+     */
+    private boolean addSession(Session session) {
+        if (sessions.putIfAbsent(session.uid.username, session) != null) {
+            return false;
+        }
+        sessionsByToken.put(session.token, session);
+        return true;
+    }
+
+    /**
+     * Removes the session (if it is still current) and tells everyone else that the user has left
+     * @param session
+     */
+    private void endSession(Session session) {
+        endSession(session, null);
+    }
 
-        for (int i = 0; i < users.size(); i++) {
-            if (uid.is(users.get(i))) {
-                j = i;
-            } else {
-                clients.get(i).notifyUserLeft(users.get(i), uid.username);
+    /**
+     * Removes the session (if it is still current) and tells everyone else that the user has left
+     * @param session
+     * @param farewell: a last call to the user's client, sent behind everything already queued for it, or null
+     */
+    private void endSession(Session session, BroadcastEngine.ClientCall farewell) {
+        if (!sessions.remove(session.uid.username, session)) {
+            return;
+        }
+        sessionsByToken.remove(session.token, session);
+        if (farewell != null) {
+            broadcaster.closeAfter(session, farewell);
+        } else {
+            broadcaster.close(session);
+        }
+        if (session.uid == admin) {
+            // No one is left to decide on waiting joins
+            synchronized (pendingJoins) {
+                for (PendingJoin join : pendingJoins.values()) {
+                    join.decision.complete(false);
+                }
+                pendingJoins.clear();
             }
         }
+        broadcaster.broadcast(sessions.values(), (c, u) -> c.notifyUserLeft(u, session.uid.username));
+    }
 
-        users.remove(j);
-        clients.remove(j);
+    /**
+     * Called when a client's connection has closed: ends every session it held
+     * @param client
+     */
+    private void dropClient(IInteractiveCanvasManager client) {
+        for (Session session : sessions.values()) {
+            if (session.client == client) {
+                endSession(session);
+            }
+        }
+    }
+
+    /**
+     * Called by the broadcast engine when a client has fallen too far behind its outbound queue.
+     * The client is treated as if it had disconnected, so it can't slow down the rest of the session.
+     * A direct connection is closed as well: its sender may be blocked on the full connection, and it frees them.
+     * @param session
+     */
+    private void dropLaggingSession(Session session) {
+        endSession(session);
+        Connection connection = Connection.of(session.client);
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Reports the number of callbacks queued for each connected client
+     * @return username -> queued callbacks
+     */
+    public Map<String, Integer> getBacklog() {
+        return broadcaster.getBacklog(sessions.values());
+    }
+
+    /**
+     * Reports the number of callbacks being made to clients right now
+     * @return
+     */
+    public int getInFlightCallbacks() {
+        return broadcaster.getInFlight();
+    }
 
+    /**
+     * Reports the number of callbacks that overran their deadline, each dropping the client it was made to
+     * @return
+     */
+    public long getTimedOutCallbacks() {
+        return broadcaster.getTimedOut();
     }
 
     /**
-     * Returns a list of users currently on the server
+     * Returns a list of users currently on the server. These are copies holding only the usernames: a session's
+     * own identity carries its token, which would let anyone holding it act as that user.
      * @param uid
      * @return a list of users
      * @throws RemoteException
      */
     public ArrayList<UserIdentity> getUsers(UserIdentity uid) throws RemoteException {
         if (isUser(uid)) {
+            ArrayList<UserIdentity> users = new ArrayList<>();
+            for (Session session : sessions.values()) {
+                users.add(new UserIdentity(session.uid.username, null));
+            }
             return users;
         } else return null;
     }
@@ -173,53 +455,442 @@ public class RemoteWhiteboard extends UnicastRemoteObject implements IRemoteWhit
      */
     public ArrayList<Drawing> getCanvas(UserIdentity uid) throws RemoteException {
         if (isUser(uid)) {
-            return drawings;
+            return drawings.snapshot();
         } else return null;
     }
 
     /**
-     * If user is admin, reset the canvas to blank
+     * Returns only the drawings that touch an area of the canvas (e.g. what a client can see), so the cost depends
+     * on what is in the area rather than on the whole canvas. If the canvas had a raster checkpoint at the client's
+     * first fetch, the area is served from that checkpoint's tiles plus the drawings made since it; otherwise it is
+     * found through the log's spatial index.
      * @param uid
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @return the drawings (or tiles) whose bounds intersect the area, in canvas order, with the sequence number
+     * they are complete up to (the client receives every drawing after it as it is drawn)
      * @throws RemoteException
      */
-    public void clearCanvas(UserIdentity uid) throws RemoteException {
-        if (uid.is(admin)) {
-            drawings = new ArrayList<Drawing>();
-            for (int i = 0; i < clients.size(); i++) {
-                clients.get(i).clearCanvas(users.get(i));
+    public CanvasDelta getCanvasRegion(UserIdentity uid, int x, int y, int width, int height) throws RemoteException {
+        Session session = getSession(uid);
+        if (session == null) return null;
+        DrawingLog log = drawings;
+        java.awt.Rectangle area = new java.awt.Rectangle(x, y, width, height);
+        RasterCheckpoint raster = session.regionCheckpoint(checkpoint);
+        if (raster != null && raster.log == log) {
+            ArrayList<Drawing> hits = raster.region(area);
+            ArrayList<Drawing> tail = log.since(raster.seq);
+            for (Drawing d : tail) {
+                if (d.getBounds().intersects(area)) hits.add(d);
             }
+            return new CanvasDelta(false, raster.seq + tail.size(), null, hits);
+        }
+        ArrayList<Drawing> hits = new ArrayList<>();
+        long seq = log.region(area, hits);
+        return new CanvasDelta(false, seq, null, hits);
+    }
+
+    /**
+     * Records how far through the drawing sequence a client has got
+     * @param uid
+     * @param seq
+     * @throws RemoteException
+     */
+    public void acknowledge(UserIdentity uid, long seq) throws RemoteException {
+        Session session = getSession(uid);
+        if (session != null && seq > session.ackedSeq) {
+            session.ackedSeq = seq;
+        }
+    }
+
+    /**
+     * Reports each client's acknowledged position in the drawing sequence
+     * @return username -> sequence number of the last drawing applied
+     */
+    public Map<String, Long> getAckWatermarks() {
+        Map<String, Long> acks = new HashMap<>();
+        for (Session session : sessions.values()) {
+            acks.put(session.uid.username, session.ackedSeq);
+        }
+        return acks;
+    }
+
+    /**
+     * Returns the drawings a client is missing, given the sequence number it has seen up to.
+     * If the client has seen part of the current canvas, it gets just the drawings after that point.
+     * Otherwise (a fresh join, the canvas was cleared since, or the client is ahead of the log because the server
+     * restarted without its old canvas) it gets the whole canvas: the raster checkpoint,
+     * if the canvas has one, or else a shared compressed snapshot, plus whatever has been drawn since either was taken.
+     * @param uid
+     * @param seq
+     * @return
+     * @throws RemoteException
+     */
+    public CanvasDelta getCanvasSince(UserIdentity uid, long seq) throws RemoteException {
+        DrawingLog log = drawings;
+        long head = log.getBaseSeq() + log.size();
+        // A client can be ahead of the log only if it synced with an earlier run of the server: what it has is
+        // from a different canvas, so it gets the whole of this one (and mustn't acknowledge drawings not yet made)
+        acknowledge(uid, Math.min(seq, head));
+        if (!isUser(uid)) return null;
+        if (seq > log.getBaseSeq() && seq <= head) {
+            ArrayList<Drawing> tail = log.since(seq);
+            return new CanvasDelta(false, seq + tail.size(), null, tail);
+        }
+        RasterCheckpoint raster = checkpoint;
+        if (raster != null && raster.log == log) {
+            ArrayList<Drawing> tail = log.since(raster.seq);
+            return new CanvasDelta(true, raster.seq + tail.size(), raster.bytes, tail);
+        }
+        EncodedSnapshot snapshot = snapshotOf(log);
+        ArrayList<Drawing> tail = log.since(snapshot.seq);
+        return new CanvasDelta(true, snapshot.seq + tail.size(), snapshot.bytes, tail);
+    }
+
+    /**
+     * Returns a recent encoded snapshot of the log, re-encoding it if it has fallen too far behind
+     * @param log
+     * @return
+     * @throws RemoteException
+     */
+    private EncodedSnapshot snapshotOf(DrawingLog log) throws RemoteException {
+        EncodedSnapshot snapshot = joinSnapshot;
+        if (snapshot != null && snapshot.log == log && log.getBaseSeq() + log.size() - snapshot.seq <= _SNAPSHOT_MAX_TAIL) {
+            return snapshot;
+        }
+        synchronized (this) {
+            // Another join may have just refreshed it
+            snapshot = joinSnapshot;
+            if (snapshot != null && snapshot.log == log && log.getBaseSeq() + log.size() - snapshot.seq <= _SNAPSHOT_MAX_TAIL) {
+                return snapshot;
+            }
+            ArrayList<Drawing> all = log.snapshot();
+            try {
+                snapshot = new EncodedSnapshot(log, log.getBaseSeq() + all.size(), CanvasDelta.encode(all));
+            } catch (IOException e) {
+                throw new RemoteException("Couldn't encode canvas snapshot", e);
+            }
+            joinSnapshot = snapshot;
+            return snapshot;
+        }
+    }
+
+    /**
+     * Runs on the checkpoint thread: re-renders the raster checkpoint if the canvas is big enough to need one
+     * and has grown enough since the last
+     */
+    private void refreshCheckpoint() {
+        DrawingLog log = drawings;
+        long seq = log.getBaseSeq() + log.size();
+        RasterCheckpoint current = checkpoint;
+        if (log.size() < _CHECKPOINT_MIN_DRAWINGS) return;
+        if (current != null && current.log == log && seq - current.seq < _CHECKPOINT_MIN_NEW) return;
+        try {
+            RasterCheckpoint next = RasterCheckpoint.build(log);
+            checkpoint = next;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error: rendering the canvas checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A compressed encoding of a log's drawings up to (and including) seq
+     */
+    private static class EncodedSnapshot {
+        final DrawingLog log;
+        final long seq;
+        final byte[] bytes;
+
+        EncodedSnapshot(DrawingLog log, long seq, byte[] bytes) {
+            this.log = log;
+            this.seq = seq;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * If user is admin, reset the canvas to blank. The old log is sealed, and the new one carries on its
+     * sequence numbers. Drawings racing with the clear land in whichever log accepts them.
+     * @param uid
+     * @throws RemoteException
+     */
+    public synchronized void clearCanvas(UserIdentity uid) throws RemoteException {
+        if (isAdmin(uid)) {
+            checkPersistence();
+            long clearedSeq = drawings.seal();
+            drawings = new DrawingLog(clearedSeq);
+            recentIds.clear();
+            persistClear(clearedSeq);
+            broadcaster.broadcast(sessions.values(), (c, u) -> c.clearCanvas(u, clearedSeq));
         }
     }
 
     /**
      * Allows approved users to submit a drawing to add to the canvas.
-     * Then, the drawing is sent to all users.
+     * Then, the drawing is queued for every user; the caller does not wait for delivery.
+     * Submitting the same drawing (same id) again has no effect, so clients may retry freely.
+     * A drawing signed with someone else's name, or of a kind clients don't draw, is ignored.
      * @param uid
      * @param drawing
+     * @throws RateLimitedException if the user is over budget
      * @throws RemoteException
      */
-    public void drawToCanvas(UserIdentity uid, Drawing drawing) throws RemoteException {
-        if (isUser(uid)) {
-            drawings.add(drawing);
-            for (int i = 0; i < users.size(); i++) {
-                try {
-                    clients.get(i).addDrawing(users.get(i), drawing);
-                } catch (RemoteException ignored) {}
+    public void drawToCanvas(UserIdentity uid, Drawing drawing) throws RateLimitedException, RemoteException {
+        Session session = getSession(uid);
+        if (session == null || !accepts(session, drawing)) return;
+        checkPersistence();
+        // A free line streamed as previews has already paid for its points
+        throttleDrawings(session, 1, Math.max(0, points(drawing) - session.prepaidPoints(drawing)));
+        session.finished(drawing);
+        if (isFirstSubmission(session, drawing)) {
+            // Retry if the log was sealed by a clear under us
+            while (drawings.append(drawing) < 0) {
+                Thread.onSpinWait();
             }
+            persist(drawing);
+            broadcaster.broadcast(sessions.values(), (c, u) -> c.addDrawing(u, drawing));
         }
     }
 
     /**
      * A method which draws a collection of drawings to the canvas, avoiding the inefficiencies
-     * of multiple RMI connections
+     * of multiple RMI connections: the batch is appended to the log in one go, and every user
+     * receives it as a single callback. Drawings signed with someone else's name, or of a kind clients don't
+     * draw, are left out.
      * @param uid
      * @param drawings
+     * @throws RateLimitedException if the user is over budget
      * @throws RemoteException
      */
-    public void drawAllToCanvas(UserIdentity uid, Collection<Drawing> drawings) throws RemoteException {
+    public void drawAllToCanvas(UserIdentity uid, Collection<Drawing> drawings) throws RateLimitedException, RemoteException {
+        Session session = getSession(uid);
+        if (session == null) return;
+        ArrayList<Drawing> accepted = new ArrayList<>(drawings.size());
+        int points = 0;
         for (Drawing d : drawings) {
-            drawToCanvas(uid, d);
+            if (accepts(session, d)) {
+                accepted.add(d);
+                points += points(d);
+            }
+        }
+        if (!accepted.isEmpty()) {
+            checkPersistence();
+            throttleDrawings(session, accepted.size(), points);
+            ArrayList<Drawing> batch = new ArrayList<>(accepted.size());
+            for (Drawing d : accepted) {
+                if (isFirstSubmission(session, d)) {
+                    batch.add(d);
+                }
+            }
+            if (batch.isEmpty()) return;
+            while (this.drawings.appendAll(batch) < 0) {
+                Thread.onSpinWait();
+            }
+            for (Drawing d : batch) {
+                persist(d);
+            }
+            broadcaster.broadcast(sessions.values(), (c, u) -> c.addDrawings(u, batch));
+        }
+    }
+
+    /**
+     * Refuses a change up front if the write-ahead log can no longer record it, rather than accept it in memory only
+     * @throws RemoteException
+     */
+    private void checkPersistence() throws RemoteException {
+        if (wal == null) return;
+        try {
+            wal.check();
+        } catch (IOException e) {
+            throw new RemoteException("Canvas can't be persisted", e);
+        }
+    }
+
+    /**
+     * Queues an accepted drawing to the write-ahead log, if there is one
+     * @param drawing
+     * @throws RemoteException
+     */
+    private void persist(Drawing drawing) throws RemoteException {
+        if (wal == null) return;
+        try {
+            wal.logDrawing(drawing);
+        } catch (IOException e) {
+            throw new RemoteException("Couldn't log drawing", e);
+        }
+    }
+
+    /**
+     * Queues a clear to the write-ahead log, if there is one
+     * @param clearedSeq
+     * @throws RemoteException
+     */
+    private void persistClear(long clearedSeq) throws RemoteException {
+        if (wal == null) return;
+        try {
+            wal.logClear(clearedSeq);
+        } catch (IOException e) {
+            throw new RemoteException("Couldn't log clear", e);
+        }
+    }
+
+    /**
+     * Tests if a sender may submit a drawing: it must be a kind clients draw, signed with the sender's own name.
+     * The admin may submit anyone's drawings, as uploading a saved canvas does.
+     * @param session
+     * @param drawing
+     * @return
+     */
+    private boolean accepts(Session session, Drawing drawing) {
+        return _CLIENT_DRAWABLE.contains(drawing.getClass())
+                && (session.uid == admin || session.uid.username.equals(drawing.getArtist()));
+    }
+
+    /**
+     * Checks a drawing against the ids recently accepted from the same sender, and remembers it if new.
+     * Ids are kept per sender (and, for the admin's uploads, per artist as well), so a user's ids can only ever
+     * collide with their own. Drawings without an id (0) can't be checked, and are always accepted.
+     * @param session
+     * @param drawing
+     * @return false if this drawing has already been accepted
+     */
+    private boolean isFirstSubmission(Session session, Drawing drawing) {
+        if (drawing.localId == 0) return true;
+        String sender = session.uid == admin ? session.uid.username + '\n' + drawing.getArtist() : session.uid.username;
+        return recentIds.computeIfAbsent(sender, a -> new RecentIds()).add(drawing.localId);
+    }
+
+    /**
+     * The most recent drawing ids accepted from one sender
+     */
+    private static class RecentIds extends LinkedHashMap<Long, Boolean> {
+        synchronized boolean add(long id) {
+            return put(id, Boolean.TRUE) == null;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > _RECENT_IDS_PER_SENDER;
+        }
+    }
+
+    /**
+     * Relays the latest points of a free line that is still being drawn to everyone else, so they can watch it
+     * progress. Segments are not kept in the log: the finished line arrives later through drawToCanvas
+     * and replaces them, charged only for points the segments haven't already paid for. Clients that are lagging
+     * are skipped, which bounds the bandwidth spent on previews.
+     * @param uid
+     * @param segment
+     * @throws RemoteException
+     */
+    public void appendToStroke(UserIdentity uid, FreeLine segment) throws RemoteException {
+        Session sender = getSession(uid);
+        if (sender == null || !accepts(sender, segment)) return;
+        // Previews are droppable, so one over budget is skipped rather than refused: the finished stroke follows.
+        // One that arrives after its finished stroke (the two travel separately) is skipped too
+        if (sender.chargeSegment(segment, sender.uid == admin)) {
+            broadcaster.broadcastDroppable(sessions.values(), sender, _STROKE_PREVIEW_MAX_BACKLOG,
+                    (c, u) -> c.appendToStroke(u, segment));
+        }
+    }
+
+    /**
+     * Charges a submission of drawings to the user's drawing and point budgets
+     * @param session
+     * @param count
+     * @param points
+     * @throws RateLimitedException if either budget is used up; neither is charged
+     */
+    private void throttleDrawings(Session session, int count, int points) throws RateLimitedException {
+        throttle(session, session.drawingBudget, "drawings", count);
+        if (points > 0) {
+            try {
+                throttle(session, session.pointBudget, "points", points);
+            } catch (RateLimitedException e) {
+                session.drawingBudget.refund(count);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Takes n from one of the user's budgets. The admin, who can already clear the canvas and upload whole files
+     * to it, isn't limited.
+     * @param session
+     * @param budget
+     * @param name: which budget, for the exception and the counters
+     * @param n
+     * @throws RateLimitedException if the budget is used up, telling the client how long to wait
+     */
+    private void throttle(Session session, TokenBucket budget, String name, double n) throws RateLimitedException {
+        if (session.uid == admin) return;
+        long wait = budget.take(n);
+        if (wait > 0) {
+            session.throttled.incrementAndGet();
+            throttled.computeIfAbsent(name, k -> new AtomicLong()).incrementAndGet();
+            throw new RateLimitedException(name, wait);
+        }
+    }
+
+    private static int points(Drawing drawing) {
+        return drawing instanceof FreeLine ? ((FreeLine) drawing).size() : 0;
+    }
+
+    /**
+     * Reports how many calls have been refused for exceeding each budget
+     * @return budget -> refused calls
+     */
+    public Map<String, Long> getThrottledCalls() {
+        Map<String, Long> counts = new HashMap<>();
+        throttled.forEach((name, count) -> counts.put(name, count.get()));
+        return counts;
+    }
+
+    /**
+     * Reports how many of each connected user's calls have been refused for exceeding their budgets
+     * @return username -> refused calls
+     */
+    public Map<String, Long> getThrottledUsers() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Session session : sessions.values()) {
+            counts.put(session.uid.username, session.throttled.get());
+        }
+        return counts;
+    }
+
+    /**
+     * Finds the session of an admin-approved user from the token they were issued on join
+     * @param uid
+     * @return the session, or null if the user is not on the server
+     */
+    private Session getSession(UserIdentity uid) {
+        if (uid == null || uid.token == null) return null;
+        Session session = sessionsByToken.get(uid.token);
+        if (session != null && session.uid.username.equals(uid.username)) {
+            return session;
         }
+        return null;
+    }
+
+    /**
+     * @return the admin's session, or null if the admin has left
+     */
+    private Session adminSession() {
+        UserIdentity a = admin;
+        Session session = a == null ? null : sessions.get(a.username);
+        return session != null && session.uid == a ? session : null;
+    }
+
+    /**
+     * Tests if a user holds the admin's session
+     * @param uid
+     * @return
+     */
+    private boolean isAdmin(UserIdentity uid) {
+        Session session = getSession(uid);
+        return session != null && session.uid == admin;
     }
 
     /**
@@ -228,25 +899,21 @@ public class RemoteWhiteboard extends UnicastRemoteObject implements IRemoteWhit
      * @return
      */
     private boolean isUser(UserIdentity uid) {
-        for (UserIdentity user : users) {
-            if (user.is(uid)) {
-                return true;
-            }
-        }
-        return false;
+        return getSession(uid) != null;
     }
 
     /**
      * Post a message to chat
      * @param uid
      * @param message
+     * @throws RateLimitedException if the user is over budget
      * @throws RemoteException
      */
-    public void sendMessage(UserIdentity uid, String message) throws RemoteException {
-        if (isUser(uid)) {
-            for (int i = 0; i <clients.size(); i++) {
-                clients.get(i).newChatMessage(users.get(i), uid.username, message);
-            }
+    public void sendMessage(UserIdentity uid, String message) throws RateLimitedException, RemoteException {
+        Session session = getSession(uid);
+        if (session != null) {
+            throttle(session, session.messageBudget, "messages", 1);
+            broadcaster.broadcast(sessions.values(), (c, u) -> c.newChatMessage(u, uid.username, message));
         }
     }
 
@@ -258,14 +925,11 @@ public class RemoteWhiteboard extends UnicastRemoteObject implements IRemoteWhit
      */
     public void removeUser(UserIdentity uid, String kickID) throws RemoteException{
 
-        if (uid.is(admin)) {
-            for (int i = 0; i < users.size(); i++) {
-                UserIdentity u = users.get(i);
-                if (u.username.equals(kickID)) {
-                    clients.get(i).reset(u);
-                    notifyDisconnect(u);
-                    return;
-                }
+        if (isAdmin(uid)) {
+            Session session = sessions.get(kickID);
+            if (session != null) {
+                // Told through its queue like any other call, so a slow or dead client can't hold up the admin
+                endSession(session, (c, u) -> c.reset(u));
             }
         }
     }
@@ -0,0 +1,117 @@
+package server;
+
+import client.IInteractiveCanvasManager;
+import drawing.Drawing;
+import drawing.FreeLine;
+import util.UserIdentity;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A user who has been admitted to the whiteboard: their identity, their client stub, and the outbound
+ * channel the server uses to call back to them. Sessions are keyed by username in the server, and
+ * also by a random token handed to the client on join, which it presents on every later call.
+ * @author Alex Epstein
+ */
+public class Session {
+
+    public final UserIdentity uid;
+    public final IInteractiveCanvasManager client;
+    public final String token;
+    BroadcastEngine.ClientChannel channel;
+    // The client has applied every drawing up to this sequence number
+    volatile long ackedSeq;
+    // What the user may send per second, and how many of their calls have been refused for exceeding it
+    final TokenBucket drawingBudget = new TokenBucket(_DRAWINGS_PER_SECOND);
+    final TokenBucket pointBudget = new TokenBucket(_POINTS_PER_SECOND);
+    final TokenBucket messageBudget = new TokenBucket(_MESSAGES_PER_SECOND);
+    final AtomicLong throttled = new AtomicLong();
+    // The id of the newest drawing accepted from the user, and of the free line they are streaming previews of,
+    // with how many of its points the previews have been charged for
+    private long finishedId;
+    private long streamingId;
+    private int streamedPoints;
+    // The raster checkpoint (if any) the client's region fetches are served from, fixed at its first fetch: every
+    // later fetch must be complete up to the same point in the sequence, even once a newer checkpoint replaces it
+    private RasterCheckpoint regionCheckpoint;
+    private boolean regionStarted;
+
+    // Budgets per user: drawings, points of free lines, and chat messages per second
+    private static final double _DRAWINGS_PER_SECOND = Double.parseDouble(System.getProperty("whiteboard.limit.drawings", "100"));
+    private static final double _POINTS_PER_SECOND = Double.parseDouble(System.getProperty("whiteboard.limit.points", "20000"));
+    private static final double _MESSAGES_PER_SECOND = Double.parseDouble(System.getProperty("whiteboard.limit.messages", "5"));
+
+    private static final SecureRandom random = new SecureRandom();
+
+    public Session(UserIdentity uid, IInteractiveCanvasManager client) {
+        this.uid = uid;
+        this.client = client;
+        this.token = newToken();
+        uid.token = token;
+    }
+
+    /**
+     * The checkpoint to serve the client's region fetches from: the current one at its first fetch, then that same
+     * one for good
+     * @param current: the canvas's checkpoint now, or null
+     * @return
+     */
+    synchronized RasterCheckpoint regionCheckpoint(RasterCheckpoint current) {
+        if (!regionStarted) {
+            regionStarted = true;
+            regionCheckpoint = current;
+        }
+        return regionCheckpoint;
+    }
+
+    /**
+     * Charges a preview segment of the free line being drawn to the point budget, and records what was paid
+     * so the finished line isn't charged for the same points again
+     * @param segment
+     * @param free: don't charge (the admin isn't limited)
+     * @return false if the segment should be dropped: over budget, or its line has already been finished
+     */
+    synchronized boolean chargeSegment(FreeLine segment, boolean free) {
+        if (segment.localId != 0 && segment.localId <= finishedId) return false;
+        if (!free && pointBudget.take(segment.size()) > 0) return false;
+        if (segment.localId != streamingId) {
+            streamingId = segment.localId;
+            streamedPoints = 0;
+        }
+        streamedPoints += segment.size();
+        return true;
+    }
+
+    /**
+     * @param drawing
+     * @return how many of the drawing's points its previews have already been charged for
+     */
+    synchronized int prepaidPoints(Drawing drawing) {
+        return drawing instanceof FreeLine && drawing.localId != 0 && drawing.localId == streamingId ? streamedPoints : 0;
+    }
+
+    /**
+     * Records that a drawing has been accepted: any previews of it still to arrive are stale
+     * @param drawing
+     */
+    synchronized void finished(Drawing drawing) {
+        finishedId = Math.max(finishedId, drawing.localId);
+        if (drawing.localId == streamingId) {
+            streamingId = 0;
+            streamedPoints = 0;
+        }
+    }
+
+    /**
+     * Generates an unguessable 128-bit session token
+     * @return
+     */
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+}
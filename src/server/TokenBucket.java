@@ -0,0 +1,49 @@
+package server;
+
+/**
+ * A token bucket: holds up to a second's worth of a rate, refilled continuously, so a client may burst up to
+ * its budget and then sustain it, but no more. A request larger than the whole bucket is allowed once the bucket
+ * is full, and leaves it in debt, so batches bigger than the budget are slowed rather than refused forever.
+ * @author Alex Epstein
+ */
+class TokenBucket {
+
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long refilled = System.nanoTime();
+
+    /**
+     * @param ratePerSecond: the budget; tokens added per second, and the most the bucket holds
+     */
+    TokenBucket(double ratePerSecond) {
+        this.rate = ratePerSecond;
+        this.capacity = ratePerSecond;
+        this.tokens = ratePerSecond;
+    }
+
+    /**
+     * Takes n tokens if there are enough
+     * @param n
+     * @return 0 if they were taken, otherwise how many ms until there will be enough
+     */
+    synchronized long take(double n) {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilled) * rate / 1e9);
+        refilled = now;
+        double needed = Math.min(n, capacity);
+        if (tokens >= needed) {
+            tokens -= n;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((needed - tokens) * 1000 / rate));
+    }
+
+    /**
+     * Gives back tokens taken for a request that then wasn't carried out
+     * @param n
+     */
+    synchronized void refund(double n) {
+        tokens = Math.min(capacity, tokens + n);
+    }
+}
@@ -0,0 +1,418 @@
+package server;
+
+import drawing.Drawing;
+import drawing.DrawingCodec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Makes the canvas survive a server restart. Every accepted drawing and every clear is appended to a log on disk,
+ * split into segment files. A single writer thread owns the file: it takes whatever records have queued up since
+ * its last write, writes them in one go and forces them to disk once (group commit), so callers never wait on the
+ * disk and a crash loses at most the records queued during one fsync.
+ *
+ * Every so often the whole canvas is written out as a compacted snapshot, after which the segments it covers are
+ * deleted. Recovery loads the newest snapshot and replays only the records after it, so restarting takes time in
+ * proportion to the canvas and the snapshot interval, not the board's whole history.
+ *
+ * Segment record: [int length][int crc32][byte type][long seq][payload], where length and crc cover everything
+ * after the crc. A torn record at the end of a segment (a crash mid-write) fails its checksum and ends replay there.
+ * A failed write is fatal: the log refuses everything from then on, rather than carry on with a hole in it.
+ * @author Alex Epstein
+ */
+public class WriteAheadLog implements Closeable {
+
+    // Record types are stored in files: append new ones, never renumber
+    private static final byte _CLEAR = 2;
+    private static final byte _DRAWING = 3;
+    private static final int _HEADER = 4 + 4;
+    private static final long _SEGMENT_BYTES = 16L << 20;
+    // Write a snapshot after this many records
+    private static final int _SNAPSHOT_EVERY = 10000;
+    private static final int _QUEUE_CAPACITY = 65536;
+    private static final int _MAX_BATCH = 4096;
+    private static final int _SNAPSHOT_MAGIC = 0x57425353;
+    private static final int _SNAPSHOT_VERSION = 1;
+    // Queued by close(): the writer stops once it has written everything queued before it
+    private static final ByteBuffer _STOP = ByteBuffer.allocate(0);
+
+    private final Path dir;
+    private final BlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>(_QUEUE_CAPACITY);
+    // Closed segments that may still hold records a snapshot doesn't cover, oldest first
+    private final List<Segment> segments = new ArrayList<>();
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private Supplier<DrawingLog> canvas;
+    private Thread writer;
+    private Segment current;
+    private FileChannel out;
+    private int nextSegment = 0;
+    private int sinceSnapshot = 0;
+    private volatile boolean closed = false;
+    // Why the writer stopped, if a write failed
+    private volatile IOException failure;
+
+    /**
+     * @param dir: the directory holding the log's files, created if missing
+     * @throws IOException
+     */
+    public WriteAheadLog(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * Rebuilds the canvas from the newest snapshot and the records logged after it
+     * @return the recovered drawings (an empty log if there is nothing on disk)
+     * @throws IOException
+     */
+    public DrawingLog recover() throws IOException {
+        long baseSeq = 0;
+        long snapshotSeq = 0;
+        TreeMap<Long, Drawing> recovered = new TreeMap<>();
+
+        Path snapshot = newest("snapshot-", ".bin");
+        if (snapshot != null) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+                if (in.readInt() != _SNAPSHOT_MAGIC || in.readInt() != _SNAPSHOT_VERSION) {
+                    throw new IOException("Unrecognised canvas snapshot " + snapshot);
+                }
+                baseSeq = in.readLong();
+                snapshotSeq = in.readLong();
+                byte[] bytes = new byte[in.readInt()];
+                int crc = in.readInt();
+                in.readFully(bytes);
+                if (crc != crc(bytes, 0, bytes.length)) {
+                    throw new IOException("Corrupt canvas snapshot " + snapshot);
+                }
+                for (Drawing d : CanvasDelta.decode(bytes)) {
+                    recovered.put(d.seq, d);
+                }
+            }
+        }
+
+        for (Path path : list("wal-", ".log")) {
+            Segment segment = new Segment(path);
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(_HEADER);
+                while (true) {
+                    header.clear();
+                    if (!readFully(in, header)) break;
+                    header.flip();
+                    int length = header.getInt();
+                    int crc = header.getInt();
+                    if (length < 9 || length > _SEGMENT_BYTES) break;
+                    ByteBuffer body = ByteBuffer.allocate(length);
+                    if (!readFully(in, body) || crc != crc(body.array(), 0, length)) break;
+                    body.flip();
+                    byte type = body.get();
+                    long seq = body.getLong();
+                    segment.maxSeq = Math.max(segment.maxSeq, seq);
+                    if (seq <= snapshotSeq) continue;
+                    if (type == _CLEAR) {
+                        baseSeq = Math.max(baseSeq, seq);
+                    } else if (type == _DRAWING) {
+                        Drawing d = decode(body);
+                        d.seq = seq;
+                        recovered.put(seq, d);
+                    }
+                }
+            }
+            segments.add(segment);
+            nextSegment = Math.max(nextSegment, indexOf(path) + 1);
+        }
+
+        // Records may have been queued slightly out of sequence; the TreeMap has put them back in order.
+        // Anything up to the last clear is gone.
+        Collection<Drawing> tail = recovered.tailMap(baseSeq, false).values();
+        boolean hole = !tail.isEmpty() && recovered.lastKey() != baseSeq + tail.size();
+        // A crash lost a record that later ones had overtaken. The log can't hold a hole, so what survives is
+        // renumbered onto a log that starts after every seq logged: no drawing takes a seq a client may already
+        // have seen for another, and every client that synced before the crash is behind the new log's base, so
+        // it gets the whole canvas again, as it would after a clear.
+        DrawingLog log = new DrawingLog(hole ? recovered.lastKey() : baseSeq);
+        log.appendAll(new ArrayList<>(tail));
+        if (hole) {
+            // The records on disk no longer match the log, so a snapshot of it replaces every segment read,
+            // before anything new is logged
+            writeSnapshot(log);
+            for (Segment segment : segments) {
+                Files.deleteIfExists(segment.path);
+            }
+            segments.clear();
+        }
+        return log;
+    }
+
+    /**
+     * Opens a fresh segment and starts the writer thread
+     * @param canvas: supplies the current canvas when it is time for a snapshot
+     * @throws IOException
+     */
+    public void start(Supplier<DrawingLog> canvas) throws IOException {
+        this.canvas = canvas;
+        roll();
+        writer = new Thread(this::run, "whiteboard-wal");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "whiteboard-wal-shutdown"));
+    }
+
+    /**
+     * Queues an accepted drawing (which must already carry its sequence number) to be written
+     * @param drawing
+     * @throws IOException
+     */
+    public void logDrawing(Drawing drawing) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DrawingCodec.write(drawing, new DataOutputStream(bytes));
+        enqueue(_DRAWING, drawing.seq, bytes.toByteArray());
+    }
+
+    /**
+     * Queues a clear of everything up to clearedSeq to be written
+     * @param clearedSeq
+     * @throws IOException
+     */
+    public void logClear(long clearedSeq) throws IOException {
+        enqueue(_CLEAR, clearedSeq, new byte[0]);
+    }
+
+    /**
+     * Throws if the log can no longer accept records, so that a change can be refused before it is made
+     * @throws IOException
+     */
+    public void check() throws IOException {
+        if (failure != null) throw new IOException("Write-ahead log has failed", failure);
+        if (closed) throw new IOException("Write-ahead log is closed");
+    }
+
+    private void enqueue(byte type, long seq, byte[] payload) throws IOException {
+        check();
+        ByteBuffer record = ByteBuffer.allocate(_HEADER + 9 + payload.length);
+        record.putInt(9 + payload.length);
+        record.putInt(0);
+        record.put(type).putLong(seq).put(payload);
+        record.putInt(4, crc(record.array(), _HEADER, 9 + payload.length));
+        record.flip();
+        try {
+            // Blocks only if the disk has fallen a long way behind
+            while (!queue.offer(record, 100, TimeUnit.MILLISECONDS)) {
+                check();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * The writer thread: group-commits whatever has queued up, rolls segments and schedules snapshots,
+     * until close() queues _STOP
+     */
+    private void run() {
+        ArrayList<ByteBuffer> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // Nothing interrupts the writer; close() queues _STOP instead
+                continue;
+            }
+            queue.drainTo(batch, _MAX_BATCH);
+            stopping = batch.removeIf(record -> record == _STOP);
+            if (stopping) {
+                // Anything that got in after the stop (an append racing with close) still goes to disk
+                queue.drainTo(batch);
+            }
+            if (batch.isEmpty()) continue;
+            boolean cleared = false;
+            for (ByteBuffer record : batch) {
+                current.maxSeq = Math.max(current.maxSeq, record.getLong(_HEADER + 1));
+                cleared |= record.get(_HEADER) == _CLEAR;
+            }
+            try {
+                synchronized (this) {
+                    ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                    while (buffers[buffers.length - 1].hasRemaining()) {
+                        out.write(buffers);
+                    }
+                    out.force(false);
+                    if (out.size() >= _SEGMENT_BYTES) {
+                        roll();
+                    }
+                }
+            } catch (IOException e) {
+                // Writing on past the lost batch would leave a hole in the log on disk
+                failure = e;
+                System.out.println("Error: writing to the write-ahead log failed, no more changes will be accepted: " + e);
+                return;
+            }
+            sinceSnapshot += batch.size();
+            batch.clear();
+            if ((cleared || sinceSnapshot >= _SNAPSHOT_EVERY) && !closed && snapshotting.compareAndSet(false, true)) {
+                sinceSnapshot = 0;
+                Thread t = new Thread(this::snapshot, "whiteboard-wal-snapshot");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    /**
+     * Writes the current canvas to a new snapshot file, then deletes the segments and older snapshot it replaces
+     */
+    private void snapshot() {
+        try {
+            long seq = writeSnapshot(canvas.get());
+            synchronized (this) {
+                for (Iterator<Segment> it = segments.iterator(); it.hasNext(); ) {
+                    Segment segment = it.next();
+                    if (segment.maxSeq <= seq) {
+                        Files.deleteIfExists(segment.path);
+                        it.remove();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error: writing a canvas snapshot failed: " + e.getMessage());
+        } finally {
+            snapshotting.set(false);
+        }
+    }
+
+    /**
+     * Writes the log's drawings to a new snapshot file, replacing the older snapshot
+     * @param log
+     * @return the sequence number the snapshot runs up to
+     * @throws IOException
+     */
+    private long writeSnapshot(DrawingLog log) throws IOException {
+        ArrayList<Drawing> all = log.snapshot();
+        long seq = log.getBaseSeq() + all.size();
+        byte[] bytes = CanvasDelta.encode(all);
+
+        Path tmp = dir.resolve("snapshot.tmp");
+        try (FileChannel f = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(4 + 4 + 8 + 8 + 4 + 4);
+            header.putInt(_SNAPSHOT_MAGIC).putInt(_SNAPSHOT_VERSION).putLong(log.getBaseSeq()).putLong(seq)
+                    .putInt(bytes.length).putInt(crc(bytes, 0, bytes.length)).flip();
+            ByteBuffer[] buffers = {header, ByteBuffer.wrap(bytes)};
+            while (buffers[1].hasRemaining()) {
+                f.write(buffers);
+            }
+            f.force(true);
+        }
+        Path snapshot = dir.resolve(String.format("snapshot-%020d.bin", seq));
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Path old : list("snapshot-", ".bin")) {
+            if (!old.equals(snapshot)) Files.deleteIfExists(old);
+        }
+        return seq;
+    }
+
+    /**
+     * Closes the current segment (if any) and starts the next
+     * @throws IOException
+     */
+    private synchronized void roll() throws IOException {
+        if (out != null) {
+            out.close();
+            segments.add(current);
+        }
+        current = new Segment(dir.resolve(String.format("wal-%010d.log", nextSegment++)));
+        out = FileChannel.open(current.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Writes out everything still queued, then closes the file
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        if (writer != null) {
+            try {
+                // The writer may have died on a failed write, leaving nothing to take _STOP off a full queue
+                while (writer.isAlive() && !queue.offer(_STOP, 100, TimeUnit.MILLISECONDS)) {
+                    Thread.onSpinWait();
+                }
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                if (out != null) out.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static Drawing decode(ByteBuffer body) throws IOException {
+        return DrawingCodec.read(body);
+    }
+
+    private static boolean readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) return false;
+        }
+        return true;
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring("wal-".length(), name.length() - ".log".length()));
+    }
+
+    /**
+     * Lists the files in the log's directory with the given prefix and suffix, in name order
+     */
+    private List<Path> list(String prefix, String suffix) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(null);
+        return paths;
+    }
+
+    private Path newest(String prefix, String suffix) throws IOException {
+        List<Path> paths = list(prefix, suffix);
+        return paths.isEmpty() ? null : paths.get(paths.size() - 1);
+    }
+
+    /**
+     * A segment file, and the highest sequence number written to it
+     */
+    private static class Segment {
+        final Path path;
+        long maxSeq;
+
+        Segment(Path path) {
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package transport;
+
+import java.io.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One persistent, duplex connection between a client and the server, carrying remote calls both ways.
+ * Each side serves a local object behind one interface (e.g. the server's IRemoteWhiteboard) and calls the other
+ * side through a proxy implementing the other interface (e.g. the client's IInteractiveCanvasManager).
+ *
+ * Frames are [int length][serialized Call or Reply]. Methods are named by their position in the interface's
+ * method table, which both sides derive from the same interface. Calls to void methods are one-way: the caller
+ * doesn't wait for a reply. Calls that return a value, or that declare an exception besides RemoteException (which
+ * the caller is expected to handle, so must hear about), wait for the reply. Either way, the calls arriving on a
+ * connection are run one at a time, in the order they were sent, so a caller mixing the two (e.g. a one-way clear
+ * followed by batches of drawings) has them take effect in the order it made them.
+ *
+ * Incoming frames are limited in size, and deserialized through an allow-list of classes: the transport's own,
+ * java.lang (boxed arguments, exceptions), RMI exceptions, the I/O exceptions one may carry as its cause (e.g. a
+ * failed save), and whatever the endpoint was told its interfaces use.
+ *
+ * Frames waiting to be written are limited to _MAX_QUEUED_BYTES per connection. Once the other side stops reading,
+ * a caller blocks in the send, one-way or not, just as it would in a blocking socket write; so anything queueing
+ * calls ahead of the connection (e.g. the server's BroadcastEngine) backs up, and its own limits apply.
+ * @author Alex Epstein
+ */
+public class Connection {
+
+    // Classes any call or reply may hold, besides those of the interfaces
+    private static final String _TRANSPORT_CLASSES = "transport.Connection$Call;transport.Connection$Reply;"
+            + "java.lang.*;java.rmi.*;java.util.Collections$*;"
+            + "java.io.IOException;java.io.UncheckedIOException;java.io.EOFException;java.io.FileNotFoundException;"
+            + "java.io.InterruptedIOException;java.io.SyncFailedException;java.io.UTFDataFormatException;"
+            + "java.io.ObjectStreamException;java.io.InvalidClassException;java.io.InvalidObjectException;"
+            + "java.io.NotSerializableException;java.io.StreamCorruptedException;java.io.OptionalDataException;"
+            + "java.nio.file.*;java.nio.channels.*";
+    private static final int _MAX_DEPTH = 32;
+    // Bytes of frames that may wait to be written before senders block (a larger frame may go alone)
+    private static final int _MAX_QUEUED_BYTES = 1 << 20;
+
+    // The connection whose call the current thread is serving, if any
+    private static final ThreadLocal<Connection> current = new ThreadLocal<>();
+
+    final SocketChannel channel;
+    SelectionKey key;
+    private final NioEndpoint endpoint;
+    private final Object local;
+    private final Method[] localMethods;
+    private final Method[] remoteMethods;
+    private final Object proxy;
+    private final Executor workers;
+    private final int maxFrame;
+    private final ObjectInputFilter filter;
+    private final AtomicLong nextCall = new AtomicLong();
+    private final ConcurrentHashMap<Long, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+    // Incoming calls waiting to be run in order
+    private final Queue<Runnable> inOrder = new ArrayDeque<>();
+    private boolean inOrderRunning = false;
+
+    // Frames waiting for the selector thread to write them, and their total size (guarded by writeSpace)
+    final Queue<ByteBuffer> writes = new ConcurrentLinkedQueue<>();
+    private final Object writeSpace = new Object();
+    private long queuedBytes = 0;
+    // Selector thread only: the frame being read
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+    private ByteBuffer body;
+    private volatile boolean closed = false;
+    private volatile Runnable onClose;
+
+    /**
+     * @param endpoint
+     * @param channel
+     * @param localInterface
+     * @param local
+     * @param remoteInterface
+     * @param workers
+     * @param maxFrame: the largest frame accepted from the other side, in bytes
+     * @param classes: the classes the interfaces pass, as an ObjectInputFilter pattern (e.g. "util.*;java.util.ArrayList")
+     */
+    Connection(NioEndpoint endpoint, SocketChannel channel, Class<?> localInterface, Object local,
+               Class<?> remoteInterface, Executor workers, int maxFrame, String classes) {
+        this.endpoint = endpoint;
+        this.maxFrame = maxFrame;
+        // No array or reference count can exceed the bytes in the frame
+        this.filter = ObjectInputFilter.Config.createFilter("maxdepth=" + _MAX_DEPTH + ";maxarray=" + maxFrame
+                + ";maxrefs=" + maxFrame + ";" + _TRANSPORT_CLASSES + ";" + classes + ";!*");
+        this.channel = channel;
+        this.local = local;
+        this.localMethods = methodTable(localInterface);
+        this.remoteMethods = methodTable(remoteInterface);
+        this.workers = workers;
+        this.proxy = Proxy.newProxyInstance(remoteInterface.getClassLoader(), new Class<?>[] {remoteInterface},
+                new Handler());
+    }
+
+    /**
+     * @param proxy
+     * @return the connection the proxy calls through, or null if it isn't a connection's proxy (e.g. an RMI stub)
+     */
+    public static Connection of(Object proxy) {
+        if (proxy == null || !Proxy.isProxyClass(proxy.getClass())) return null;
+        InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+        return handler instanceof Handler ? ((Handler) handler).connection() : null;
+    }
+
+    /**
+     * @return the connection whose call the current thread is serving, or null if it isn't serving one
+     */
+    public static Connection current() {
+        return current.get();
+    }
+
+    /**
+     * @return the other side's object, as a proxy implementing its interface
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getProxy() {
+        return (T) proxy;
+    }
+
+    /**
+     * @param onClose: run once, when the connection closes for any reason
+     */
+    public void setOnClose(Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the connection. Calls still waiting on a reply fail with a ConnectException.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        for (CompletableFuture<Object> call : pending.values()) {
+            call.completeExceptionally(new ConnectException("Connection closed"));
+        }
+        pending.clear();
+        synchronized (writeSpace) {
+            // Wakes senders waiting for room, who fail
+            writeSpace.notifyAll();
+        }
+        Runnable r = onClose;
+        if (r != null) r.run();
+    }
+
+    /**
+     * Methods sorted into an order both sides agree on
+     */
+    private static Method[] methodTable(Class<?> iface) {
+        Method[] methods = iface.getMethods();
+        Arrays.sort(methods, Comparator.comparing(Method::toGenericString));
+        return methods;
+    }
+
+    /**
+     * A void method is one-way, unless it declares an exception the caller must be told about
+     */
+    private static boolean isOneWay(Method method) {
+        if (method.getReturnType() != void.class) return false;
+        for (Class<?> declared : method.getExceptionTypes()) {
+            if (declared != RemoteException.class) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(Method[] table, Method method) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i].equals(method)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The proxy's handler
+     */
+    private class Handler implements InvocationHandler {
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            return invokeRemote(method, args);
+        }
+
+        Connection connection() {
+            return Connection.this;
+        }
+    }
+
+    /**
+     * Sends the call, and waits for its reply unless it is one-way
+     */
+    private Object invokeRemote(Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals": return proxy == args[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                default: return "Connection proxy to " + channel;
+            }
+        }
+        int index = indexOf(remoteMethods, method);
+        if (closed) throw new ConnectException("Connection closed");
+        boolean oneWay = isOneWay(method);
+        long id = nextCall.incrementAndGet();
+        CompletableFuture<Object> reply = null;
+        if (!oneWay) {
+            reply = new CompletableFuture<>();
+            pending.put(id, reply);
+        }
+        try {
+            send(new Call(id, index, oneWay, args));
+        } catch (IOException e) {
+            pending.remove(id);
+            throw new RemoteException("Couldn't send call", e);
+        }
+        if (oneWay) return null;
+        try {
+            return reply.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException || cause instanceof Error) throw cause;
+            for (Class<?> declared : method.getExceptionTypes()) {
+                if (declared.isInstance(cause)) throw cause;
+            }
+            throw new RemoteException("Remote call failed", cause);
+        } catch (InterruptedException e) {
+            pending.remove(id);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted waiting for reply", e);
+        }
+    }
+
+    /**
+     * Serializes a message into a frame and queues it for the selector thread to write, first waiting for room
+     * if too much is queued already
+     */
+    private void send(Serializable message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[4]);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.limit() - 4);
+        synchronized (writeSpace) {
+            while (!closed && queuedBytes > 0 && queuedBytes + frame.limit() > _MAX_QUEUED_BYTES) {
+                try {
+                    writeSpace.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting to send");
+                }
+            }
+            if (closed) throw new ConnectException("Connection closed");
+            queuedBytes += frame.limit();
+            writes.add(frame);
+        }
+        endpoint.requestWrite(this);
+    }
+
+    /**
+     * Selector thread: reads whatever has arrived, and handles each complete frame
+     * @return false if the other side has closed the connection
+     */
+    boolean read() throws IOException {
+        while (true) {
+            if (body == null) {
+                if (channel.read(header) < 0) return false;
+                if (header.hasRemaining()) return true;
+                header.flip();
+                int length = header.getInt();
+                header.clear();
+                if (length < 0 || length > maxFrame) throw new IOException("Bad frame length " + length);
+                body = ByteBuffer.allocate(length);
+            }
+            if (channel.read(body) < 0) return false;
+            if (body.hasRemaining()) return true;
+            byte[] frame = body.array();
+            body = null;
+            receive(frame);
+        }
+    }
+
+    /**
+     * Selector thread: writes as much of the queue as the socket will take
+     * @return true if everything queued has been written
+     */
+    boolean write() throws IOException {
+        ByteBuffer frame;
+        long written = 0;
+        try {
+            while ((frame = writes.peek()) != null) {
+                channel.write(frame);
+                if (frame.hasRemaining()) return false;
+                writes.poll();
+                written += frame.limit();
+            }
+            return true;
+        } finally {
+            if (written > 0) {
+                synchronized (writeSpace) {
+                    queuedBytes -= written;
+                    writeSpace.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void receive(byte[] frame) throws IOException {
+        Object message;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(frame))) {
+            in.setObjectInputFilter(filter);
+            message = in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown message class", e);
+        }
+        if (message instanceof Reply) {
+            Reply reply = (Reply) message;
+            CompletableFuture<Object> call = pending.remove(reply.id);
+            if (call != null) {
+                if (reply.error != null) call.completeExceptionally(reply.error);
+                else call.complete(reply.result);
+            }
+        } else if (message instanceof Call) {
+            Call call = (Call) message;
+            if (call.method < 0 || call.method >= localMethods.length) throw new IOException("Unknown method");
+            runInOrder(() -> serve(call));
+        }
+    }
+
+    /**
+     * Runs one incoming call against the local object, replying if the caller is waiting
+     */
+    private void serve(Call call) {
+        Object result = null;
+        Throwable error = null;
+        current.set(this);
+        try {
+            result = localMethods[call.method].invoke(local, call.args);
+        } catch (InvocationTargetException e) {
+            error = e.getCause();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            error = e;
+        } finally {
+            current.remove();
+        }
+        if (call.oneWay || closed) return;
+        try {
+            send(new Reply(call.id, result, error));
+        } catch (NotSerializableException e) {
+            try {
+                send(new Reply(call.id, null, new RemoteException("Result not serializable: " + e.getMessage())));
+            } catch (IOException ignored) {}
+        } catch (IOException ignored) {}
+    }
+
+    private void runInOrder(Runnable task) {
+        synchronized (inOrder) {
+            inOrder.add(task);
+            if (inOrderRunning) return;
+            inOrderRunning = true;
+        }
+        workers.execute(this::drainInOrder);
+    }
+
+    private void drainInOrder() {
+        while (true) {
+            Runnable task;
+            synchronized (inOrder) {
+                task = inOrder.poll();
+                if (task == null) {
+                    inOrderRunning = false;
+                    return;
+                }
+            }
+            task.run();
+        }
+    }
+
+    /**
+     * A call to the method at the given position of the receiver's method table
+     */
+    private static class Call implements Serializable {
+        final long id;
+        final int method;
+        final boolean oneWay;
+        final Object[] args;
+
+        Call(long id, int method, boolean oneWay, Object[] args) {
+            this.id = id;
+            this.method = method;
+            this.oneWay = oneWay;
+            this.args = args;
+        }
+    }
+
+    /**
+     * The outcome of a call: its result, or the exception it threw
+     */
+    private static class Reply implements Serializable {
+        final long id;
+        final Object result;
+        final Throwable error;
+
+        Reply(long id, Object result, Throwable error) {
+            this.id = id;
+            this.result = result;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package transport;
+
+import util.VirtualThreads;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * A selector thread that does all the socket I/O for any number of connections, non-blocking: accepting,
+ * reading frames and writing them. Incoming calls are handed to a pool of worker threads, so a slow call never
+ * holds up the I/O of other connections. Workers are virtual threads where the JVM has them.
+ *
+ * The server listens for clients with listen(); a client opens its single connection to the server with connect().
+ * @author Alex Epstein
+ */
+public class NioEndpoint {
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ExecutorService workers = VirtualThreads.newPerTaskExecutor("whiteboard-nio-worker");
+    // Connections that have frames to write, or need registering; picked up by the selector thread
+    private final Queue<Connection> toRegister = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> toWrite = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+
+    private ServerSocketChannel server;
+    private Class<?> localInterface;
+    private Object local;
+    private Class<?> remoteInterface;
+    private Consumer<Connection> onAccept;
+    private int maxFrame;
+    private String classes;
+
+    private NioEndpoint() throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this::run, "whiteboard-nio");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Serves the local object to every client that connects to the address
+     * @param address: the address and port to listen on
+     * @param maxFrame: the largest call a client may send, in bytes
+     * @param classes: the classes the interfaces pass, as an ObjectInputFilter pattern; nothing else is deserialized
+     * @param localInterface: the interface clients call, e.g. IRemoteWhiteboard
+     * @param local: the object implementing it
+     * @param remoteInterface: the interface each client serves back, e.g. IInteractiveCanvasManager
+     * @param onAccept: told about each new connection
+     * @return
+     * @throws IOException
+     */
+    public static NioEndpoint listen(InetSocketAddress address, int maxFrame, String classes, Class<?> localInterface,
+                                     Object local, Class<?> remoteInterface, Consumer<Connection> onAccept) throws IOException {
+        NioEndpoint endpoint = new NioEndpoint();
+        endpoint.localInterface = localInterface;
+        endpoint.local = local;
+        endpoint.remoteInterface = remoteInterface;
+        endpoint.onAccept = onAccept;
+        endpoint.maxFrame = maxFrame;
+        endpoint.classes = classes;
+        endpoint.server = ServerSocketChannel.open();
+        endpoint.server.bind(address);
+        endpoint.server.configureBlocking(false);
+        endpoint.server.register(endpoint.selector, SelectionKey.OP_ACCEPT);
+        endpoint.thread.start();
+        return endpoint;
+    }
+
+    /**
+     * Opens a connection to a server, serving the local object back to it over the same connection
+     * @param host
+     * @param port
+     * @param maxFrame: the largest call or reply the server may send, in bytes
+     * @param classes: the classes the interfaces pass, as an ObjectInputFilter pattern; nothing else is deserialized
+     * @param localInterface: the interface the server calls back, e.g. IInteractiveCanvasManager
+     * @param local: the object implementing it
+     * @param remoteInterface: the interface the server serves, e.g. IRemoteWhiteboard
+     * @return the connection; its proxy calls the server
+     * @throws IOException
+     */
+    public static Connection connect(String host, int port, int maxFrame, String classes, Class<?> localInterface,
+                                     Object local, Class<?> remoteInterface) throws IOException {
+        NioEndpoint endpoint = new NioEndpoint();
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+        Connection connection = new Connection(endpoint, channel, localInterface, local, remoteInterface,
+                endpoint.workers, maxFrame, classes);
+        // A client's endpoint exists for its one connection
+        connection.setOnClose(endpoint::close);
+        endpoint.toRegister.add(connection);
+        endpoint.thread.start();
+        return connection;
+    }
+
+    /**
+     * Stops the selector thread and closes every connection
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    void requestWrite(Connection connection) {
+        toWrite.add(connection);
+        selector.wakeup();
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                break;
+            }
+            Connection c;
+            while ((c = toRegister.poll()) != null) {
+                try {
+                    c.key = c.channel.register(selector, SelectionKey.OP_READ, c);
+                    c.key.interestOps(c.key.interestOps() | SelectionKey.OP_WRITE);
+                } catch (ClosedChannelException e) {
+                    c.close();
+                }
+            }
+            while ((c = toWrite.poll()) != null) {
+                if (c.key != null && c.key.isValid()) {
+                    c.key.interestOps(c.key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+            for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (!key.isValid()) continue;
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable() && !connection.read()) {
+                        connection.close();
+                        continue;
+                    }
+                    if (key.isValid() && key.isWritable() && connection.write()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        // A frame may have been queued between the last write and dropping OP_WRITE
+                        if (!connection.writes.isEmpty()) {
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        }
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    connection.close();
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        try {
+            selector.close();
+            if (server != null) server.close();
+        } catch (IOException ignored) {}
+        workers.shutdown();
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = server.accept();
+            if (channel == null) return;
+            channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            Connection connection = new Connection(this, channel, localInterface, local, remoteInterface, workers,
+                    maxFrame, classes);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            if (onAccept != null) onAccept.accept(connection);
+        } catch (IOException ignored) {}
+    }
+}
@@ -9,6 +9,8 @@ import java.io.Serializable;
 public class UserIdentity implements Serializable {
     public String username;
     public String secret;
+    // Issued by the server on join; identifies the session in O(1)
+    public String token;
 
     public UserIdentity(String username, String secret){
         this.username = username;
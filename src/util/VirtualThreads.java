@@ -0,0 +1,32 @@
+package util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors that start a new thread per task. Where the JVM has virtual threads (Java 21+) the threads are
+ * virtual, so a task blocked on a slow remote call only parks a cheap virtual thread; on older JVMs they come
+ * from a cached pool of daemon platform threads. Looked up reflectively, as the code is built for Java 11.
+ * @author Alex Epstein
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {}
+
+    /**
+     * @param name: the name given to the threads when they are platform threads
+     * @return an executor that runs every task on its own thread
+     */
+    public static ExecutorService newPerTaskExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // No virtual threads here (or only as a preview feature)
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package client;
+
+import drawing.Drawing;
+import drawing.Line;
+import org.junit.jupiter.api.Test;
+import server.CanvasDelta;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The cache applies drawings strictly in sequence, whatever order they arrive in
+ * @author Alex Epstein
+ */
+class CanvasCacheTest {
+
+    private static Drawing drawing(long seq) {
+        Line line = new Line("alice", 0, Color.BLACK);
+        line.seq = seq;
+        return line;
+    }
+
+    private static List<Long> seqs(List<Drawing> drawings) {
+        List<Long> seqs = new ArrayList<>();
+        for (Drawing d : drawings) {
+            seqs.add(d.seq);
+        }
+        return seqs;
+    }
+
+    private static CanvasDelta delta(boolean reset, long seq, long... drawings) {
+        ArrayList<Drawing> tail = new ArrayList<>();
+        for (long s : drawings) {
+            tail.add(drawing(s));
+        }
+        return new CanvasDelta(reset, seq, null, tail);
+    }
+
+    @Test
+    void holdsEarlyDrawingsUntilTheGapIsFilled() {
+        CanvasCache cache = new CanvasCache();
+        assertEquals(List.of(), seqs(cache.offer(drawing(3))));
+        assertEquals(List.of(), seqs(cache.offer(drawing(2))));
+        assertTrue(cache.hasGap());
+        assertEquals(Arrays.asList(1L, 2L, 3L), seqs(cache.offer(drawing(1))));
+        assertFalse(cache.hasGap());
+        assertEquals(3, cache.getSeq());
+        assertEquals(Arrays.asList(1L, 2L, 3L), seqs(cache.getDrawings()));
+    }
+
+    @Test
+    void ignoresDuplicates() {
+        CanvasCache cache = new CanvasCache();
+        cache.offer(drawing(1));
+        cache.offer(drawing(3));
+        assertEquals(List.of(), seqs(cache.offer(drawing(1))));
+        assertEquals(List.of(), seqs(cache.offer(drawing(3))));
+        assertEquals(Arrays.asList(2L, 3L), seqs(cache.offer(drawing(2))));
+        assertEquals(Arrays.asList(1L, 2L, 3L), seqs(cache.getDrawings()));
+    }
+
+    @Test
+    void deltaFillsTheGapAndDrainsEarlyDrawings() throws IOException {
+        CanvasCache cache = new CanvasCache();
+        cache.offer(drawing(1));
+        cache.offer(drawing(4));
+        cache.offer(drawing(5));
+        assertEquals(Arrays.asList(2L, 3L, 4L, 5L), seqs(cache.apply(delta(false, 3, 2, 3))));
+        assertEquals(5, cache.getSeq());
+        assertFalse(cache.hasGap());
+    }
+
+    @Test
+    void resetReplacesEverything() throws IOException {
+        CanvasCache cache = new CanvasCache();
+        cache.offer(drawing(1));
+        cache.offer(drawing(2));
+        cache.offer(drawing(3));
+        // The server restarted: its canvas is shorter than ours
+        assertEquals(Arrays.asList(1L), seqs(cache.apply(delta(true, 1, 1))));
+        assertEquals(1, cache.getSeq());
+        assertEquals(Arrays.asList(1L), seqs(cache.getDrawings()));
+        assertEquals(Arrays.asList(2L), seqs(cache.offer(drawing(2))));
+    }
+
+    @Test
+    void clearKeepsLaterDrawingsAndSkipsTheGap() {
+        CanvasCache cache = new CanvasCache();
+        cache.offer(drawing(1));
+        cache.offer(drawing(2));
+        cache.offer(drawing(6));
+        // Drawings 3 to 5 were cleared before we saw them
+        assertEquals(Arrays.asList(6L), seqs(cache.clear(5)));
+        assertEquals(6, cache.getSeq());
+        assertFalse(cache.hasGap());
+        assertEquals(Arrays.asList(6L), seqs(cache.getDrawings()));
+    }
+
+    @Test
+    void partialCacheStartsPartWayAndBecomesWholeOnAClear() {
+        CanvasCache cache = new CanvasCache();
+        cache.restart();
+        assertTrue(cache.isPartial());
+        cache.offer(drawing(12));
+        assertEquals(List.of(), seqs(cache.offer(drawing(11))));
+        // Drawings up to 10 are fetched by region; those after arrive in sequence
+        assertEquals(Arrays.asList(11L, 12L), seqs(cache.startAt(10)));
+        assertTrue(cache.isPartial());
+        assertEquals(12, cache.getSeq());
+
+        cache.clear(8);
+        assertTrue(cache.isPartial());
+        cache.clear(12);
+        assertFalse(cache.isPartial());
+    }
+
+    @Test
+    void partialCacheIsWholeIfEverythingArrivedInSequence() {
+        CanvasCache cache = new CanvasCache();
+        cache.restart();
+        cache.offer(drawing(1));
+        cache.offer(drawing(2));
+        assertEquals(List.of(), seqs(cache.startAt(2)));
+        assertFalse(cache.isPartial());
+    }
+}
@@ -0,0 +1,108 @@
+package client;
+
+import drawing.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A canvas saved in the indexed format opens as it was saved, in any order it is read
+ * @author Alex Epstein
+ */
+class CanvasFileTest {
+
+    @TempDir
+    File dir;
+
+    private static List<Drawing> board() {
+        List<Drawing> drawings = new ArrayList<>();
+        Line line = new Line("alice", 1000, Color.RED);
+        line.startx = 1; line.starty = 2; line.endx = 30; line.endy = 40;
+        drawings.add(line);
+        Rectangle rectangle = new Rectangle("bob", 1001, Color.BLUE);
+        rectangle.startx = 50; rectangle.starty = 60; rectangle.endx = 10; rectangle.endy = 20;
+        drawings.add(rectangle);
+        FreeLine freeLine = new FreeLine("carol", 1002, Color.GREEN);
+        for (int i = 0; i < 300; i++) {
+            freeLine.addPoint((short) (i * 3), (short) (1000 - i));
+        }
+        drawings.add(freeLine);
+        Text text = new Text("alice", 1003, Color.BLACK);
+        text.startx = 70; text.starty = 80;
+        text.setCharArray("hello");
+        drawings.add(text);
+        for (int i = 0; i < drawings.size(); i++) {
+            drawings.get(i).seq = 41 + 2 * i;
+        }
+        return drawings;
+    }
+
+    private static void assertSameDrawing(Drawing expected, Drawing actual) {
+        assertSame(expected.getClass(), actual.getClass());
+        assertEquals(expected.seq, actual.seq);
+        assertEquals(expected.getArtist(), actual.getArtist());
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.colour, actual.colour);
+        assertEquals(expected.getBounds(), actual.getBounds());
+    }
+
+    @Test
+    void roundTripsEveryDrawingWithItsSeq() throws IOException {
+        File file = new File(dir, "board.canvas");
+        List<Drawing> drawings = board();
+        CanvasFile.write(file, drawings);
+        assertTrue(CanvasFile.isIndexed(file));
+
+        try (CanvasFile.Reader reader = CanvasFile.open(file)) {
+            assertEquals(drawings.size(), reader.size());
+            ArrayList<Drawing> all = reader.get(0, reader.size());
+            for (int i = 0; i < drawings.size(); i++) {
+                assertSameDrawing(drawings.get(i), all.get(i));
+            }
+            // Random access, backwards
+            for (int i = drawings.size() - 1; i >= 0; i--) {
+                assertSameDrawing(drawings.get(i), reader.get(i));
+            }
+            FreeLine points = (FreeLine) reader.get(2);
+            assertEquals(300, points.size());
+            assertEquals(897, points.getX(299));
+            assertEquals(701, points.getY(299));
+            assertEquals("hello", ((Text) reader.get(3)).getText());
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.get(drawings.size()));
+        }
+    }
+
+    @Test
+    void anEmptyCanvasRoundTrips() throws IOException {
+        File file = new File(dir, "empty.canvas");
+        CanvasFile.write(file, new ArrayList<>());
+        try (CanvasFile.Reader reader = CanvasFile.open(file)) {
+            assertEquals(0, reader.size());
+        }
+    }
+
+    @Test
+    void refusesAnIndexThatRunsPastTheEnd() throws IOException {
+        File file = new File(dir, "truncated.canvas");
+        CanvasFile.write(file, board());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertThrows(IOException.class, () -> CanvasFile.open(file));
+    }
+
+    @Test
+    void refusesALegacyFile() throws Exception {
+        File legacy = new File(getClass().getResource("legacy.canvas").toURI());
+        assertFalse(CanvasFile.isIndexed(legacy));
+        assertThrows(IOException.class, () -> CanvasFile.open(legacy));
+    }
+}
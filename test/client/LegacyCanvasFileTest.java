@@ -0,0 +1,73 @@
+package client;
+
+import drawing.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Canvases saved by earlier versions, as a serialized list of drawings, still open.
+ * legacy.canvas was written by the drawing classes as they were before the current file format.
+ * @author Alex Epstein
+ */
+class LegacyCanvasFileTest {
+
+    private static void assertDrawing(Drawing d, Class<? extends Drawing> type, String artist, long timestamp,
+                                      Color colour, int startx, int starty, int endx, int endy) {
+        assertSame(type, d.getClass());
+        assertEquals(artist, d.getArtist());
+        assertEquals(timestamp, d.timestamp);
+        assertEquals(colour, d.colour);
+        assertEquals(startx, d.startx);
+        assertEquals(starty, d.starty);
+        assertEquals(endx, d.endx);
+        assertEquals(endy, d.endy);
+    }
+
+    @Test
+    void readsEveryType() throws IOException, URISyntaxException {
+        File file = new File(getClass().getResource("legacy.canvas").toURI());
+        ArrayList<Drawing> drawings = CanvasFile.readLegacy(file);
+        assertEquals(6, drawings.size());
+
+        assertDrawing(drawings.get(0), Line.class, "alice", 1000, Color.RED, 1, 2, 30, 40);
+        assertDrawing(drawings.get(1), Rectangle.class, "bob", 1001, Color.BLUE, 50, 60, 10, 20);
+        assertDrawing(drawings.get(2), Circle.class, "alice", 1002, Color.GREEN, 5, 5, 25, 35);
+        assertDrawing(drawings.get(3), Triangle.class, "carol", 1003, Color.BLACK, 100, 100, 150, 180);
+
+        Drawing freeLine = drawings.get(4);
+        assertSame(FreeLine.class, freeLine.getClass());
+        assertEquals("bob", freeLine.getArtist());
+        assertEquals(Color.MAGENTA, freeLine.colour);
+        FreeLine points = (FreeLine) freeLine;
+        assertEquals(10, points.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(10 + i, points.getX(i));
+            assertEquals(20 + 2 * i, points.getY(i));
+        }
+
+        Drawing text = drawings.get(5);
+        assertSame(Text.class, text.getClass());
+        assertEquals("carol", text.getArtist());
+        assertEquals(Color.ORANGE, text.colour);
+        assertEquals(70, text.startx);
+        assertEquals(80, text.starty);
+        assertEquals("hello", ((Text) text).getText());
+    }
+
+    @Test
+    void refusesAFileInTheCurrentFormat(@TempDir File dir) throws IOException {
+        File file = new File(dir, "current.canvas");
+        ArrayList<Drawing> drawings = new ArrayList<>();
+        drawings.add(new Line("alice", 0, Color.BLACK));
+        CanvasFile.write(file, drawings);
+        assertThrows(IOException.class, () -> CanvasFile.readLegacy(file));
+    }
+}
@@ -0,0 +1,160 @@
+package drawing;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Every drawing type survives a DrawingCodec round trip, and damaged records are refused
+ * @author Alex Epstein
+ */
+class DrawingCodecTest {
+
+    private static <T extends Drawing> T place(T d, int startx, int starty, int endx, int endy) {
+        d.startx = startx;
+        d.starty = starty;
+        d.endx = endx;
+        d.endy = endy;
+        d.localId = 7;
+        d.seq = 42;
+        return d;
+    }
+
+    private static List<Drawing> everyType() {
+        List<Drawing> drawings = new ArrayList<>();
+        drawings.add(place(new Line("alice", 1000, Color.RED), 1, 2, 30, 40));
+        drawings.add(place(new Rectangle("bob", 1001, Color.BLUE), 50, 60, 10, 20));
+        drawings.add(place(new Circle("alice", 1002, new Color(10, 20, 30, 40)), -5, -5, 25, 35));
+        drawings.add(place(new Triangle("carol", 1003, null), 100, 100, 150, 180));
+        FreeLine line = new FreeLine("bob", 1004, Color.MAGENTA);
+        for (short i = 0; i < 10; i++) {
+            line.addPoint((short) (10 + i), (short) (-20 + 2 * i));
+        }
+        drawings.add(place(line, 0, 0, 0, 0));
+        Text text = new Text("carol", 1005, Color.ORANGE);
+        text.setCharArray("hello, wörld");
+        drawings.add(place(text, 70, 80, 0, 0));
+        drawings.add(place(new Picture("dave", 1006, new byte[]{1, 2, 3, (byte) 0xFF}, 0, 0, 4, 4), 5, 6, 9, 10));
+        return drawings;
+    }
+
+    private static byte[] encode(List<Drawing> drawings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Drawing d : drawings) {
+            DrawingCodec.write(d, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void roundTripsEveryType() throws IOException {
+        List<Drawing> written = everyType();
+        ByteBuffer buffer = ByteBuffer.wrap(encode(written));
+        for (Drawing expected : written) {
+            Drawing actual = DrawingCodec.read(buffer);
+            assertSame(expected.getClass(), actual.getClass());
+            assertEquals(expected.startx, actual.startx);
+            assertEquals(expected.starty, actual.starty);
+            assertEquals(expected.endx, actual.endx);
+            assertEquals(expected.endy, actual.endy);
+            assertEquals(expected.colour, actual.colour);
+            assertEquals(expected.getArtist(), actual.getArtist());
+            assertEquals(expected.timestamp, actual.timestamp);
+            assertEquals(expected.localId, actual.localId);
+            assertEquals(expected.seq, actual.seq);
+            if (expected instanceof FreeLine) {
+                FreeLine e = (FreeLine) expected, a = (FreeLine) actual;
+                assertEquals(e.size(), a.size());
+                assertArrayEquals(Arrays.copyOf(e.getPoints(), 2 * e.size()), Arrays.copyOf(a.getPoints(), 2 * a.size()));
+            }
+            if (expected instanceof Text) {
+                assertEquals(((Text) expected).getText(), ((Text) actual).getText());
+            }
+            assertEquals(expected.getBounds(), actual.getBounds());
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void refusesUnknownType() {
+        assertThrows(IOException.class, () -> DrawingCodec.read(ByteBuffer.wrap(new byte[]{0, 1, 2})));
+        assertThrows(IOException.class, () -> DrawingCodec.read(ByteBuffer.wrap(new byte[]{99, 1, 2})));
+    }
+
+    @Test
+    void refusesTruncatedRecord() throws IOException {
+        byte[] record = encode(everyType().subList(4, 5));
+        ByteBuffer truncated = ByteBuffer.wrap(record, 0, record.length - 3);
+        assertThrows(EOFException.class, () -> DrawingCodec.read(truncated));
+    }
+
+    /**
+     * An empty free line's record, with its point count (the last byte) replaced
+     */
+    private static byte[] freeLineClaiming(int count) throws IOException {
+        byte[] empty = encode(List.of(place(new FreeLine("bob", 1004, Color.MAGENTA), 0, 0, 0, 0)));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(empty, 0, empty.length - 1);
+        WireFormat.writeVarInt(new DataOutputStream(bytes), count);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void refusesAnImpossiblePointCount() throws IOException {
+        for (int count : new int[]{-1, 1 << 30, Integer.MAX_VALUE}) {
+            ByteBuffer record = ByteBuffer.wrap(freeLineClaiming(count));
+            assertThrows(InvalidObjectException.class, () -> DrawingCodec.read(record));
+        }
+    }
+
+    @Test
+    void pointCountLargerThanTheRecordRunsOutOfInput() throws IOException {
+        ByteBuffer record = ByteBuffer.wrap(freeLineClaiming(1 << 20));
+        assertThrows(EOFException.class, () -> DrawingCodec.read(record));
+    }
+
+    @Test
+    void refusesAnImpossiblePictureSize() throws IOException {
+        byte[] empty = encode(List.of(new Picture("dave", 1006, new byte[0], 0, 0, 4, 4)));
+        for (int size : new int[]{-1, 1 << 30, Integer.MAX_VALUE}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(empty, 0, empty.length - 1);
+            WireFormat.writeVarInt(new DataOutputStream(bytes), size);
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            assertThrows(InvalidObjectException.class, () -> DrawingCodec.read(record));
+        }
+    }
+
+    @Test
+    void refusesAFontOutsideTheRegistry() throws IOException {
+        Text text = new Text("carol", 1005, Color.ORANGE);
+        text.setCharArray("hi");
+        byte[] record = encode(List.of(text));
+        for (int id : new int[]{0, -1, 1000}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(record, 0, record.length - 1);
+            WireFormat.writeVarInt(new DataOutputStream(bytes), id);
+            ByteBuffer damaged = ByteBuffer.wrap(bytes.toByteArray());
+            assertThrows(IOException.class, () -> DrawingCodec.read(damaged));
+        }
+    }
+
+    @Test
+    void artistNamesAreShared() {
+        String bob = WireFormat.internArtist(new String("bob"));
+        assertSame(bob, WireFormat.internArtist(new String("bob")));
+        assertNull(WireFormat.internArtist(null));
+    }
+}
@@ -0,0 +1,100 @@
+package drawing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Simplification keeps the shape of a stroke to within the tolerance, and its order and ends
+ * @author Alex Epstein
+ */
+class StrokeSimplifierTest {
+
+    private static short[] points(int... xy) {
+        short[] packed = new short[xy.length];
+        for (int i = 0; i < xy.length; i++) {
+            packed[i] = (short) xy[i];
+        }
+        return packed;
+    }
+
+    private static short[] kept(short[] xy, int n) {
+        return Arrays.copyOf(xy, 2 * n);
+    }
+
+    @Test
+    void dropsRepeatedPoints() {
+        short[] xy = points(0, 0, 0, 0, 5, 5, 5, 5, 5, 5, 0, 0);
+        int n = StrokeSimplifier.dropRepeats(xy, 6);
+        assertArrayEquals(points(0, 0, 5, 5, 0, 0), kept(xy, n));
+    }
+
+    @Test
+    void dropsPointsOnAStraightLine() {
+        short[] xy = points(0, 0, 25, 0, 50, 0, 75, 0, 100, 0);
+        int n = StrokeSimplifier.simplify(xy, 5, 1.0, true);
+        assertArrayEquals(points(0, 0, 100, 0), kept(xy, n));
+    }
+
+    @Test
+    void keepsACorner() {
+        short[] xy = points(0, 0, 50, 0, 100, 0, 100, 50, 100, 100);
+        int n = StrokeSimplifier.douglasPeucker(xy, 5, 1.0);
+        assertArrayEquals(points(0, 0, 100, 0, 100, 100), kept(xy, n));
+    }
+
+    @Test
+    void douglasPeuckerKeepsAStrokeThatDoublesBack() {
+        // The turn at (100, 0) lies on the line through the ends, but far beyond the segment between them
+        short[] xy = points(0, 0, 100, 0, 50, 0);
+        int n = StrokeSimplifier.douglasPeucker(xy, 3, 1.0);
+        assertArrayEquals(points(0, 0, 100, 0, 50, 0), kept(xy, n));
+    }
+
+    @Test
+    void visvalingamKeepsAStrokeThatDoublesBack() {
+        short[] xy = points(0, 0, 100, 0, 50, 0);
+        int n = StrokeSimplifier.visvalingamWhyatt(xy, 3, 1.0);
+        assertArrayEquals(points(0, 0, 100, 0, 50, 0), kept(xy, n));
+
+        // Out and back to the start: the triangle has no area at all
+        xy = points(0, 0, 100, 0, 0, 0);
+        n = StrokeSimplifier.simplify(xy, 3, 1.0, true);
+        assertArrayEquals(points(0, 0, 100, 0, 0, 0), kept(xy, n));
+    }
+
+    @Test
+    void staysWithinToleranceOfTheStroke() {
+        int count = 2000;
+        short[] original = new short[2 * count];
+        for (int i = 0; i < count; i++) {
+            original[2 * i] = (short) (i / 4);
+            original[2 * i + 1] = (short) Math.round(200 + 80 * Math.sin(i / 150.0));
+        }
+        double tolerance = 2.0;
+        short[] xy = original.clone();
+        int n = StrokeSimplifier.douglasPeucker(xy, count, tolerance);
+        assertTrue(n < count / 10, "kept " + n);
+        assertEquals(original[0], xy[0]);
+        assertEquals(original[2 * count - 2], xy[2 * n - 2]);
+
+        // Every original point lies within the tolerance of the simplified line
+        for (int i = 0; i < count; i++) {
+            double best = Double.MAX_VALUE;
+            for (int k = 1; k < n; k++) {
+                best = Math.min(best, distanceToSegment(original[2 * i], original[2 * i + 1],
+                        xy[2 * k - 2], xy[2 * k - 1], xy[2 * k], xy[2 * k + 1]));
+            }
+            assertTrue(best <= tolerance + 1e-9, "point " + i + " is " + best + " away");
+        }
+    }
+
+    private static double distanceToSegment(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double lenSq = dx * dx + dy * dy;
+        double t = lenSq == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lenSq));
+        return Math.hypot(px - ax - t * dx, py - ay - t * dy);
+    }
+}
@@ -0,0 +1,124 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import util.UserIdentity;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A slow or stuck client is cut off without holding up the caller, and a closing session gets its last call
+ * @author Alex Epstein
+ */
+class BroadcastEngineTest {
+
+    private static final long _DEADLINE_MS = 200;
+
+    private final LinkedBlockingQueue<Session> lagging = new LinkedBlockingQueue<>();
+    private final BroadcastEngine engine = new BroadcastEngine(4, _DEADLINE_MS, lagging::add);
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    // Released at the end of each test, so calls stuck on it finish
+    private final CountDownLatch stuck = new CountDownLatch(1);
+
+    private Session open(String username) {
+        Session session = new Session(new UserIdentity(username, username), null);
+        engine.open(session);
+        return session;
+    }
+
+    private BroadcastEngine.ClientCall record(String call) {
+        return (c, u) -> received.add(call);
+    }
+
+    private BroadcastEngine.ClientCall hang() {
+        return (c, u) -> {
+            try {
+                stuck.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private void awaitReceived(int n) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.size() < n) {
+            assertTrue(System.nanoTime() < deadline, "only received " + received);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void deliversEachSessionsCallsInOrder() throws InterruptedException {
+        Session a = open("a");
+        Session b = open("b");
+        for (int i = 0; i < 3; i++) {
+            String call = String.valueOf(i);
+            engine.broadcast(List.of(a, b), (c, u) -> received.add(u.username + call));
+        }
+        awaitReceived(6);
+        assertEquals(List.of("a0", "a1", "a2"), received.stream().filter(r -> r.startsWith("a")).collect(Collectors.toList()));
+        assertEquals(List.of("b0", "b1", "b2"), received.stream().filter(r -> r.startsWith("b")).collect(Collectors.toList()));
+        assertNull(lagging.poll());
+    }
+
+    @Test
+    void dropsASessionStuckPastTheDeadline() throws InterruptedException {
+        Session stuckSession = open("stuck");
+        Session fine = open("fine");
+        long start = System.nanoTime();
+        engine.send(stuckSession, hang());
+        engine.send(fine, record("fine"));
+
+        assertSame(stuckSession, lagging.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(_DEADLINE_MS));
+        assertEquals(1, engine.getTimedOut());
+        assertEquals(List.of("fine"), received);
+        // Nothing more is sent to it
+        engine.send(stuckSession, record("late"));
+        stuck.countDown();
+        Thread.sleep(50);
+        assertEquals(List.of("fine"), received);
+    }
+
+    @Test
+    void dropsASessionWhoseQueueOverflows() {
+        Session slow = open("slow");
+        engine.send(slow, hang());
+        for (int i = 0; i < 6 && lagging.isEmpty(); i++) {
+            engine.send(slow, record("queued " + i));
+        }
+        assertSame(slow, lagging.poll());
+        assertEquals(0, engine.getTimedOut());
+        stuck.countDown();
+    }
+
+    @Test
+    void closeAfterMakesTheLastCallThenSendsNothingMore() throws InterruptedException {
+        Session kicked = open("kicked");
+        engine.send(kicked, record("drawing"));
+        engine.closeAfter(kicked, record("reset"));
+        engine.send(kicked, record("after"));
+        awaitReceived(2);
+        Thread.sleep(50);
+        assertEquals(List.of("drawing", "reset"), received);
+        engine.send(kicked, record("later still"));
+        Thread.sleep(50);
+        assertEquals(List.of("drawing", "reset"), received);
+        assertNull(lagging.poll());
+    }
+
+    @Test
+    void aLastCallThatHangsIsStillCutOffByTheDeadline() throws InterruptedException {
+        Session kicked = open("kicked");
+        engine.closeAfter(kicked, hang());
+        assertSame(kicked, lagging.poll(5, TimeUnit.SECONDS));
+        stuck.countDown();
+    }
+}
@@ -0,0 +1,153 @@
+package server;
+
+import drawing.Drawing;
+import drawing.Line;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Appends from many threads at once each get their own slot and sequence number, and none are lost
+ * @author Alex Epstein
+ */
+class DrawingLogTest {
+
+    private static final int _WRITERS = 8;
+    private static final int _PER_WRITER = 20000;
+
+    private static Line line(String artist, int x) {
+        Line line = new Line(artist, 0, Color.BLACK);
+        line.startx = x;
+        line.endx = x + 1;
+        return line;
+    }
+
+    /**
+     * Runs the task on every writer thread at once
+     */
+    private static <T> List<T> concurrently(Callable<T> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(_WRITERS);
+        CyclicBarrier start = new CyclicBarrier(_WRITERS);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int w = 0; w < _WRITERS; w++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            List<T> results = new ArrayList<>();
+            for (Future<T> f : futures) {
+                results.add(f.get(60, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentAppendsAreGapFreeAndKeepEachWritersOrder() throws Exception {
+        DrawingLog log = new DrawingLog(100);
+        List<List<Drawing>> written = concurrently(() -> {
+            String artist = Thread.currentThread().getName();
+            List<Drawing> mine = new ArrayList<>();
+            for (int i = 0; i < _PER_WRITER; i++) {
+                Line line = line(artist, i);
+                // Every few appends go in as a batch
+                if (i % 10 == 0 && i + 3 <= _PER_WRITER) {
+                    List<Drawing> batch = List.of(line, line(artist, i + 1), line(artist, i + 2));
+                    long first = log.appendAll(batch);
+                    for (int k = 0; k < batch.size(); k++) {
+                        assertEquals(first + k, batch.get(k).seq);
+                    }
+                    mine.addAll(batch);
+                    i += 2;
+                } else {
+                    long seq = log.append(line);
+                    assertEquals(seq, line.seq);
+                    mine.add(line);
+                }
+            }
+            return mine;
+        });
+
+        long total = (long) _WRITERS * _PER_WRITER;
+        assertEquals(total, log.size());
+        ArrayList<Drawing> all = log.snapshot();
+        assertEquals(total, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(101 + i, all.get(i).seq);
+        }
+        Set<Drawing> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        seen.addAll(all);
+        for (List<Drawing> mine : written) {
+            assertTrue(seen.containsAll(mine));
+            for (int i = 1; i < mine.size(); i++) {
+                assertTrue(mine.get(i).seq > mine.get(i - 1).seq);
+                assertEquals(mine.get(i - 1).startx + 1, mine.get(i).startx);
+            }
+        }
+    }
+
+    @Test
+    void sealingRefusesLaterAppendsWithoutLosingEarlierOnes() throws Exception {
+        DrawingLog log = new DrawingLog();
+        CountDownLatch halfway = new CountDownLatch(_WRITERS);
+        ExecutorService sealer = Executors.newSingleThreadExecutor();
+        Future<Long> sealed = sealer.submit(() -> {
+            halfway.await();
+            return log.seal();
+        });
+        List<List<Drawing>> accepted = concurrently(() -> {
+            List<Drawing> mine = new ArrayList<>();
+            for (int i = 0; i < _PER_WRITER; i++) {
+                if (i == _PER_WRITER / 2) halfway.countDown();
+                Line line = line("a", i);
+                if (log.append(line) > 0) {
+                    mine.add(line);
+                }
+            }
+            return mine;
+        });
+        long last = sealed.get(60, TimeUnit.SECONDS);
+        sealer.shutdown();
+
+        Set<Long> seqs = new HashSet<>();
+        for (List<Drawing> mine : accepted) {
+            for (Drawing d : mine) {
+                assertTrue(seqs.add(d.seq));
+            }
+        }
+        assertEquals(last, seqs.size());
+        assertEquals(last, log.size());
+        assertEquals(last, log.snapshot().size());
+        assertEquals(-1, log.append(line("late", 0)));
+        assertEquals(last, log.seal());
+    }
+
+    @Test
+    void regionQueriesAreCompleteUpToTheirSeq() throws Exception {
+        DrawingLog log = new DrawingLog(10);
+        for (int i = 0; i < 1000; i++) {
+            log.append(line("a", i * 10));
+        }
+        ArrayList<Drawing> hits = new ArrayList<>();
+        long upTo = log.region(new Rectangle(0, 0, 98, 10), hits);
+        assertEquals(1010, upTo);
+        assertEquals(10, hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals(11 + i, hits.get(i).seq);
+        }
+    }
+}
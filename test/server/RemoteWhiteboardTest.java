@@ -0,0 +1,321 @@
+package server;
+
+import client.IInteractiveCanvasManager;
+import drawing.Drawing;
+import drawing.FreeLine;
+import drawing.Line;
+import drawing.Picture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import util.UserIdentity;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The whiteboard as its clients see it, with clients that record what they are sent
+ * @author Alex Epstein
+ */
+class RemoteWhiteboardTest {
+
+    private RemoteWhiteboard whiteboard;
+    private final ConcurrentHashMap<String, FakeClient> clients = new ConcurrentHashMap<>();
+    private final ExecutorService joins = Executors.newCachedThreadPool();
+    private UserIdentity admin;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        whiteboard = new RemoteWhiteboard("localhost");
+        whiteboard.setClientResolver(uid -> clients.computeIfAbsent(uid.username, FakeClient::new));
+        admin = new UserIdentity("alice", "a");
+        assertNotNull(whiteboard.startWhiteboard(admin));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        joins.shutdownNow();
+        UnicastRemoteObject.unexportObject(whiteboard, true);
+    }
+
+    /**
+     * Asks to join, and has the admin approve as soon as the request shows up
+     */
+    private UserIdentity join(String username) throws Exception {
+        UserIdentity uid = new UserIdentity(username, username);
+        Future<String> token = joins.submit(() -> whiteboard.joinWhiteboard(uid));
+        client("alice").awaitJoinRequest(username);
+        whiteboard.decideJoins(admin, List.of(username), true);
+        assertNotNull(token.get(10, TimeUnit.SECONDS));
+        return uid;
+    }
+
+    private Future<String> requestJoin(String username) throws InterruptedException {
+        UserIdentity uid = new UserIdentity(username, username);
+        Future<String> token = joins.submit(() -> whiteboard.joinWhiteboard(uid));
+        client("alice").awaitJoinRequest(username);
+        return token;
+    }
+
+    private static void awaitContents(List<String> list, List<String> expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!list.containsAll(expected)) {
+            assertTrue(System.nanoTime() < deadline, "only " + list);
+            Thread.sleep(5);
+        }
+    }
+
+    private FakeClient client(String username) {
+        return clients.computeIfAbsent(username, FakeClient::new);
+    }
+
+    private static Line line(String artist, long localId) {
+        Line line = new Line(artist, 0, Color.BLACK);
+        line.localId = localId;
+        return line;
+    }
+
+    @Test
+    void anApprovedUserJoinsAndEveryoneHearsOfIt() throws Exception {
+        join("bob");
+        awaitContents(client("alice").joined, List.of("bob"));
+        awaitContents(client("bob").joined, List.of("alice", "bob"));
+    }
+
+    @Test
+    void theAdminDecidesOnSeveralJoinsAtOnce() throws Exception {
+        Future<String> bob = requestJoin("bob");
+        Future<String> carol = requestJoin("carol");
+        Future<String> dave = requestJoin("dave");
+        whiteboard.decideJoins(admin, List.of("bob", "carol"), true);
+        whiteboard.decideJoins(admin, List.of("dave"), false);
+        assertNotNull(bob.get(10, TimeUnit.SECONDS));
+        assertNotNull(carol.get(10, TimeUnit.SECONDS));
+        assertNull(dave.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void onlyTheAdminDecides() throws Exception {
+        UserIdentity bob = join("bob");
+        Future<String> carol = requestJoin("carol");
+        whiteboard.decideJoins(bob, List.of("carol"), true);
+        assertThrows(TimeoutException.class, () -> carol.get(200, TimeUnit.MILLISECONDS));
+        whiteboard.decideJoins(admin, List.of("carol"), false);
+        assertNull(carol.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void waitingJoinsAreRefusedWhenTheAdminLeaves() throws Exception {
+        Future<String> bob = requestJoin("bob");
+        whiteboard.notifyDisconnect(admin);
+        assertNull(bob.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void aNameCanBeUsedOnlyOnce() throws Exception {
+        Future<String> bob = requestJoin("bob");
+        // Another join under the same name, while the first is waiting and once it has joined
+        assertNull(whiteboard.joinWhiteboard(new UserIdentity("bob", "impostor")));
+        whiteboard.decideJoins(admin, List.of("bob"), true);
+        assertNotNull(bob.get(10, TimeUnit.SECONDS));
+        assertNull(whiteboard.joinWhiteboard(new UserIdentity("bob", "impostor")));
+        assertNull(whiteboard.joinWhiteboard(new UserIdentity("alice", "impostor")));
+    }
+
+    @Test
+    void drawingsSignedWithSomeoneElsesNameAreIgnored() throws Exception {
+        UserIdentity bob = join("bob");
+        UserIdentity mallory = join("mallory");
+
+        whiteboard.drawToCanvas(mallory, line("bob", 7));
+        whiteboard.drawAllToCanvas(mallory, List.of(line("bob", 8)));
+        assertEquals(0, whiteboard.getCanvas(admin).size());
+
+        // Bob's own ids weren't taken by the forgeries
+        whiteboard.drawToCanvas(bob, line("bob", 7));
+        whiteboard.drawToCanvas(bob, line("bob", 8));
+        assertEquals(2, whiteboard.getCanvas(admin).size());
+
+        // Each sender's ids are their own, and a retry is still caught
+        whiteboard.drawToCanvas(mallory, line("mallory", 7));
+        whiteboard.drawToCanvas(bob, line("bob", 7));
+        assertEquals(3, whiteboard.getCanvas(admin).size());
+    }
+
+    @Test
+    void theAdminMayUploadAnyonesDrawings() throws Exception {
+        join("bob");
+        whiteboard.drawAllToCanvas(admin, List.of(line("bob", 1), line("carol", 1), line("alice", 1)));
+        assertEquals(3, whiteboard.getCanvas(admin).size());
+    }
+
+    @Test
+    void picturesFromClientsAreIgnored() throws Exception {
+        UserIdentity bob = join("bob");
+        whiteboard.drawToCanvas(bob, new Picture("bob", 0, new byte[]{1, 2, 3}, 0, 0, 4, 4));
+        whiteboard.drawAllToCanvas(admin, List.of(new Picture("alice", 0, new byte[]{1, 2, 3}, 0, 0, 4, 4),
+                line("alice", 1)));
+        assertEquals(1, whiteboard.getCanvas(admin).size());
+        assertSame(Line.class, whiteboard.getCanvas(admin).get(0).getClass());
+    }
+
+    private static Line line(String artist, int x, int y) {
+        Line line = new Line(artist, 0, Color.BLACK);
+        line.startx = x;
+        line.starty = y;
+        line.endx = x + 10;
+        line.endy = y + 10;
+        return line;
+    }
+
+    private void drawLines(int count, int x, int y) throws Exception {
+        ArrayList<Drawing> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            batch.add(line("alice", x + i % 100, y));
+        }
+        whiteboard.drawAllToCanvas(admin, batch);
+    }
+
+    /**
+     * Waits for the server to render a checkpoint of the canvas as it is now
+     */
+    private void awaitCheckpoint(long seq) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (true) {
+            List<Drawing> full = whiteboard.getCanvasSince(admin, 0).getDrawings();
+            if (full.get(0) instanceof Picture && full.get(0).seq == seq) return;
+            assertTrue(System.nanoTime() < deadline, "no checkpoint at " + seq);
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    void regionFetchesAreServedFromTheCheckpointTheClientStartedWith() throws Exception {
+        UserIdentity bob = join("bob");
+        drawLines(1000, 0, 0);
+        awaitCheckpoint(1000);
+
+        CanvasDelta first = whiteboard.getCanvasRegion(bob, 0, 0, 1024, 1024);
+        assertEquals(1000, first.seq);
+        List<Drawing> tiles = first.getDrawings();
+        assertEquals(1, tiles.size());
+        assertSame(Picture.class, tiles.get(0).getClass());
+
+        // A newer checkpoint replaces the one bob started with
+        drawLines(1, 600, 600);
+        drawLines(299, 2000, 0);
+        awaitCheckpoint(1300);
+
+        CanvasDelta later = whiteboard.getCanvasRegion(bob, 0, 0, 1024, 1024);
+        assertEquals(1300, later.seq);
+        List<Drawing> hits = later.getDrawings();
+        assertEquals(2, hits.size());
+        assertEquals(1000, hits.get(0).seq);
+        assertSame(Picture.class, hits.get(0).getClass());
+        assertEquals(1001, hits.get(1).seq);
+        assertEquals(299, whiteboard.getCanvasRegion(bob, 1024, 0, 2048, 1024).getDrawings().size());
+    }
+
+    @Test
+    void kickingAUserDoesntWaitOnTheirClient() throws Exception {
+        CountDownLatch stuck = new CountDownLatch(1);
+        clients.put("bob", new FakeClient("bob") {
+            @Override
+            public void reset(UserIdentity uid) {
+                try {
+                    stuck.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.reset(uid);
+            }
+        });
+        UserIdentity bob = join("bob");
+
+        long start = System.nanoTime();
+        whiteboard.removeUser(admin, "bob");
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertNull(whiteboard.getCanvas(bob));
+
+        stuck.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!client("bob").reset) {
+            assertTrue(System.nanoTime() < deadline, "bob was never told");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void aClientOverItsBudgetIsToldHowLongToWaitOverRmi() throws Exception {
+        UserIdentity bob = join("bob");
+        IRemoteWhiteboard stub = (IRemoteWhiteboard) RemoteObject.toStub(whiteboard);
+        RemoteException refused = null;
+        for (int i = 0; i < 50 && refused == null; i++) {
+            try {
+                stub.sendMessage(bob, "hi " + i);
+            } catch (RemoteException e) {
+                refused = e;
+            }
+        }
+        assertNotNull(refused);
+        // RMI wraps whatever a remote method throws
+        assertTrue(refused instanceof ServerException, refused.toString());
+        RateLimitedException limited = RateLimitedException.of(refused);
+        assertNotNull(limited);
+        assertTrue(limited.getRetryAfterMillis() > 0);
+        // The admin isn't limited
+        for (int i = 0; i < 50; i++) {
+            stub.sendMessage(admin, "hi " + i);
+        }
+    }
+
+    /**
+     * Records what the server sends it
+     */
+    static class FakeClient implements IInteractiveCanvasManager {
+        final String username;
+        final List<Drawing> drawings = new CopyOnWriteArrayList<>();
+        final List<List<String>> joinRequests = new CopyOnWriteArrayList<>();
+        final List<String> chat = new CopyOnWriteArrayList<>();
+        final List<String> joined = new CopyOnWriteArrayList<>();
+        volatile boolean reset = false;
+
+        FakeClient(String username) {
+            this.username = username;
+        }
+
+        void awaitJoinRequest(String username) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (joinRequests.stream().noneMatch(waiting -> waiting.contains(username))) {
+                assertTrue(System.nanoTime() < deadline, "no join request from " + username);
+                Thread.sleep(5);
+            }
+        }
+
+        @Override public void addDrawing(UserIdentity uid, Drawing drawing) { drawings.add(drawing); }
+        @Override public void addDrawings(UserIdentity uid, List<Drawing> batch) { drawings.addAll(batch); }
+        @Override public void appendToStroke(UserIdentity uid, FreeLine segment) {}
+        @Override public void clearCanvas(UserIdentity uid, long seq) {}
+        @Override public void notifyJoinRequests(UserIdentity uid, List<String> usernames) { joinRequests.add(usernames); }
+        @Override public void notifyUserJoin(UserIdentity uid, String username) { joined.add(username); }
+        @Override public void notifyUserLeft(UserIdentity uid, String username) {}
+        @Override public void newChatMessage(UserIdentity uid, String username, String message) { chat.add(message); }
+        @Override public void reset(UserIdentity uid) { reset = true; }
+    }
+}
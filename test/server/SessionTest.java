@@ -0,0 +1,55 @@
+package server;
+
+import drawing.FreeLine;
+import org.junit.jupiter.api.Test;
+import util.UserIdentity;
+
+import java.awt.Color;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A free line is charged for its points once, whether they arrive as previews or in the finished line
+ * @author Alex Epstein
+ */
+class SessionTest {
+
+    private final Session session = new Session(new UserIdentity("bob", "b"), null);
+
+    private static FreeLine line(long localId, int points) {
+        FreeLine line = new FreeLine("bob", 0, Color.BLACK);
+        line.localId = localId;
+        for (int i = 0; i < points; i++) {
+            line.addPoint((short) i, (short) i);
+        }
+        return line;
+    }
+
+    @Test
+    void previewsPrepayTheFinishedLine() {
+        assertTrue(session.chargeSegment(line(7, 30), false));
+        assertTrue(session.chargeSegment(line(7, 20), false));
+        assertEquals(50, session.prepaidPoints(line(7, 60)));
+        // Another line has paid nothing
+        assertEquals(0, session.prepaidPoints(line(8, 60)));
+        session.finished(line(7, 60));
+        assertEquals(0, session.prepaidPoints(line(7, 60)));
+    }
+
+    @Test
+    void aPreviewArrivingAfterItsFinishedLineIsDropped() {
+        session.finished(line(7, 10));
+        assertFalse(session.chargeSegment(line(7, 5), false));
+        assertFalse(session.chargeSegment(line(6, 5), false));
+        assertTrue(session.chargeSegment(line(8, 5), false));
+    }
+
+    @Test
+    void aPreviewOverThePointBudgetIsDroppedUnlessFree() {
+        int budget = (int) Double.parseDouble(System.getProperty("whiteboard.limit.points", "20000"));
+        assertTrue(session.chargeSegment(line(7, budget), false));
+        assertFalse(session.chargeSegment(line(7, 10), false));
+        assertTrue(session.chargeSegment(line(7, 10), true));
+        assertEquals(budget + 10, session.prepaidPoints(line(7, 0)));
+    }
+}
@@ -0,0 +1,50 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A client may burst up to its budget, then sustain it, but no more
+ * @author Alex Epstein
+ */
+class TokenBucketTest {
+
+    @Test
+    void allowsABurstUpToTheBudgetThenRefuses() {
+        TokenBucket bucket = new TokenBucket(5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.take(1));
+        }
+        long wait = bucket.take(1);
+        // A token comes back every 200ms
+        assertTrue(wait > 0 && wait <= 200, "wait " + wait);
+    }
+
+    @Test
+    void refillsOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100);
+        assertEquals(0, bucket.take(100));
+        assertTrue(bucket.take(10) > 0);
+        Thread.sleep(150);
+        assertEquals(0, bucket.take(10));
+    }
+
+    @Test
+    void aRequestLargerThanTheBudgetGoesOnceTheBucketIsFullAndLeavesItInDebt() {
+        TokenBucket bucket = new TokenBucket(10);
+        assertEquals(0, bucket.take(25));
+        // 15 in debt, and the next token is 1.5 seconds away
+        long wait = bucket.take(1);
+        assertTrue(wait > 1000 && wait <= 1600, "wait " + wait);
+    }
+
+    @Test
+    void aRefundIsAvailableAgain() {
+        TokenBucket bucket = new TokenBucket(10);
+        assertEquals(0, bucket.take(10));
+        assertTrue(bucket.take(4) > 0);
+        bucket.refund(4);
+        assertEquals(0, bucket.take(4));
+    }
+}
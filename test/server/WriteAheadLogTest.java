@@ -0,0 +1,145 @@
+package server;
+
+import drawing.Drawing;
+import drawing.Line;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The canvas recovered after a restart is the one that was logged, whatever the log went through on the way
+ * @author Alex Epstein
+ */
+class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    private static Line line(String artist, long seq) {
+        Line line = new Line(artist, 0, Color.BLACK);
+        line.seq = seq;
+        return line;
+    }
+
+    private static List<String> contents(DrawingLog log) {
+        List<String> contents = new ArrayList<>();
+        for (Drawing d : log.snapshot()) {
+            contents.add(d.getArtist() + "@" + d.seq);
+        }
+        return contents;
+    }
+
+    /**
+     * Recovers the canvas, logs the given drawings onto the end of it as the server would, then closes the log
+     */
+    private DrawingLog restart(String... artists) throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(dir);
+        DrawingLog log = wal.recover();
+        wal.start(() -> log);
+        for (String artist : artists) {
+            Line line = line(artist, 0);
+            log.append(line);
+            wal.logDrawing(line);
+        }
+        wal.close();
+        return log;
+    }
+
+    private DrawingLog recover() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(dir);
+        try {
+            return wal.recover();
+        } finally {
+            wal.close();
+        }
+    }
+
+    @Test
+    void keepsEverythingLoggedBeforeClose() throws IOException {
+        String[] artists = new String[5000];
+        for (int i = 0; i < artists.length; i++) {
+            artists[i] = "x" + i;
+        }
+        restart(artists);
+        DrawingLog log = recover();
+        assertEquals(5000, log.size());
+        List<Drawing> drawings = log.snapshot();
+        for (int i = 0; i < drawings.size(); i++) {
+            assertEquals(i + 1, drawings.get(i).seq);
+            assertEquals("x" + i, drawings.get(i).getArtist());
+        }
+    }
+
+    @Test
+    void keepsDrawingsAfterAHoleUnderSeqsNoClientHasSeen() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(dir);
+        DrawingLog empty = wal.recover();
+        wal.start(() -> empty);
+        // Drawing 3 was lost in a crash after drawing 4 overtook it
+        wal.logDrawing(line("a", 1));
+        wal.logDrawing(line("b", 2));
+        wal.logDrawing(line("d", 4));
+        wal.close();
+
+        DrawingLog recovered = recover();
+        assertEquals(4, recovered.getBaseSeq());
+        assertEquals(List.of("a@5", "b@6", "d@7"), contents(recovered));
+        restart("e");
+        recovered = recover();
+        assertEquals(4, recovered.getBaseSeq());
+        assertEquals(List.of("a@5", "b@6", "d@7", "e@8"), contents(recovered));
+    }
+
+    @Test
+    void dropsEverythingUpToAClear() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(dir);
+        DrawingLog log = wal.recover();
+        wal.start(() -> log);
+        for (String artist : new String[]{"a", "b"}) {
+            Line line = line(artist, 0);
+            log.append(line);
+            wal.logDrawing(line);
+        }
+        wal.logClear(2);
+        Line c = line("c", 3);
+        wal.logDrawing(c);
+        wal.close();
+
+        DrawingLog recovered = recover();
+        assertEquals(2, recovered.getBaseSeq());
+        assertEquals(List.of("c@3"), contents(recovered));
+    }
+
+    @Test
+    void stopsAtATornRecord() throws IOException {
+        restart("a", "b", "c");
+        // The last write was cut short by a crash
+        Path last;
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> segments = files.filter(p -> p.getFileName().toString().startsWith("wal-"))
+                    .sorted(Comparator.comparing(Path::toString))
+                    .collect(Collectors.toList());
+            last = segments.get(segments.size() - 1);
+        }
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        assertEquals(List.of("a@1", "b@2"), contents(recover()));
+        restart("d");
+        assertEquals(List.of("a@1", "b@2", "d@3"), contents(recover()));
+    }
+}
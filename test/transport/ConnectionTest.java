@@ -0,0 +1,107 @@
+package transport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Calls over a direct connection arrive in order, and come back with their results and failures
+ * @author Alex Epstein
+ */
+class ConnectionTest {
+
+    private static final int _MAX_FRAME = 1 << 16;
+    private static final String _CLASSES = "java.util.ArrayList";
+
+    interface Board extends Remote {
+        // One-way
+        void mark(String mark) throws RemoteException;
+        // Two-way: the caller must hear of an IOException
+        void markChecked(String mark) throws IOException;
+        ArrayList<String> marks() throws RemoteException;
+        void save() throws IOException;
+    }
+
+    static class LocalBoard implements Board {
+        final List<String> marks = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void mark(String mark) {
+            if (mark.startsWith("slow")) {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            marks.add(mark);
+        }
+
+        @Override
+        public void markChecked(String mark) {
+            marks.add(mark);
+        }
+
+        @Override
+        public ArrayList<String> marks() {
+            return new ArrayList<>(marks);
+        }
+
+        @Override
+        public void save() throws IOException {
+            throw new RemoteException("Canvas can't be persisted", new java.nio.file.NoSuchFileException("wal-0.log"));
+        }
+    }
+
+    private final LocalBoard server = new LocalBoard();
+    private NioEndpoint endpoint;
+    private Connection connection;
+    private Board remote;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        endpoint = NioEndpoint.listen(new InetSocketAddress("localhost", port), _MAX_FRAME, _CLASSES, Board.class,
+                server, Board.class, c -> {});
+        connection = NioEndpoint.connect("localhost", port, _MAX_FRAME, _CLASSES, Board.class, new LocalBoard(),
+                Board.class);
+        remote = connection.getProxy();
+    }
+
+    @AfterEach
+    void tearDown() {
+        connection.close();
+        endpoint.close();
+    }
+
+    @Test
+    void twoWayCallsWaitBehindOneWayCallsSentBeforeThem() throws IOException {
+        remote.mark("slow clear");
+        remote.markChecked("batch 1");
+        remote.mark("one-way");
+        remote.markChecked("batch 2");
+        assertEquals(List.of("slow clear", "batch 1", "one-way", "batch 2"), remote.marks());
+    }
+
+    @Test
+    void anIoFailureComesBackAsTheCause() {
+        RemoteException e = assertThrows(RemoteException.class, () -> remote.save());
+        assertTrue(e.getMessage().startsWith("Canvas can't be persisted"));
+        assertTrue(e.getCause() instanceof java.nio.file.NoSuchFileException);
+        assertFalse(connection.isClosed());
+    }
+}